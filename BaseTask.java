@@ -0,0 +1,38 @@
+import java.time.LocalDateTime;
+import java.time.Instant;
+import java.time.ZoneId;
+
+//поля, которые правятся у живой задачи, volatile: их читают без блокировок (см. TaskList)
+class BaseTask {
+    protected volatile String description;
+    protected long createdMillis; //мс от эпохи; LocalDateTime собирается только когда дату показывают
+    protected int priority;
+    long id; //стабильный номер: не меняется ни при перестановках, ни при удалении в корзину и восстановлении
+    TaskStore owner; //хранилище, в котором сейчас лежит задача; пока оно есть, приоритет = позиция
+    Object storeNode; //узел задачи в основном TreapTaskStore - позиция ищется по нему без карты
+
+    public BaseTask(String description, int priority) {
+        this(description, priority, System.currentTimeMillis());
+    }
+
+    public BaseTask(String description, int priority, long createdMillis) {
+        this.description = description;
+        this.createdMillis = createdMillis;
+        this.priority = priority;
+    }
+
+    public long getId() { return id; }
+    public long getCreatedMillis() { return createdMillis; }
+    public LocalDateTime getCreatedDate() { return LocalDateTime.ofInstant(Instant.ofEpochMilli(createdMillis), ZoneId.systemDefault()); }
+    public int getPriority() {
+        TaskStore store = owner;
+        return store != null ? store.indexOf(this) + 1 : priority;
+    }
+    public void setDescription(String description) { this.description = description; }
+    public void setPriority(int priority) { this.priority = priority; }
+    public String toString() { return description; }
+
+    //то же, что toString, но без промежуточной строки - для вывода больших списков
+    public void appendTo(StringBuilder out) { out.append(description); }
+
+}
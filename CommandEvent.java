@@ -0,0 +1,17 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("todo.Command")
+@Label("Command")
+@Category("To-Do")
+@Threshold("10 ms")
+class CommandEvent extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("Allocated Bytes")
+    long allocatedBytes;
+}
@@ -0,0 +1,270 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+
+//напоминания о дедлайнах задач списка: иерархическое колесо таймеров (Varghese, Lauck) с шагом в секунду.
+//LEVELS уровней по 64 ячейки; напоминание лежит на самом нижнем уровне, где его момент совпадает с текущим
+//во всех разрядах выше этого уровня. Когда время входит в ячейку уровня L, ее напоминания раскладываются
+//по уровням ниже, а ячейка уровня 0 - это те, кому пора сработать. Ячейка - двусвязный список с заглушкой,
+//напоминание находится по id задачи, поэтому и постановка, и отмена - O(1) при любом числе напоминаний;
+//все, что дальше оборота верхнего уровня (~194 дня), ждет в отдельном списке и пересматривается раз в оборот
+class DeadlineReminders implements AutoCloseable {
+    static final long TICK_MILLIS = 1000;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+
+    //UPCOMING - за lead до дедлайна, DUE - дедлайн наступил, OVERDUE - уже прошел, когда напоминание ставили
+    enum Kind { UPCOMING, DUE, OVERDUE }
+
+    //куда уходят сработавшие напоминания: вызывается из потока напоминаний пачкой за шаг колеса,
+    //без блокировок колеса и списка
+    interface Sink {
+        void remind(List<Notice> notices);
+
+        //remind бросил исключение - напоминания этого шага потеряны; сообщить об этом - дело получателя
+        default void failed(RuntimeException e) { }
+    }
+
+    static final class Notice {
+        final long sequence; //растет с каждым напоминанием, по нему клиенты HTTP забирают новые
+        final Kind kind;
+        final long taskId;
+        final BaseTask task; //null, пока напоминание не вышло из колеса
+        final long deadlineMillis;
+        final long firedAt;
+
+        Notice(long sequence, Kind kind, long taskId, BaseTask task, long deadlineMillis, long firedAt) {
+            this.sequence = sequence;
+            this.kind = kind;
+            this.taskId = taskId;
+            this.task = task;
+            this.deadlineMillis = deadlineMillis;
+            this.firedAt = firedAt;
+        }
+    }
+
+    private static final class Reminder {
+        final long taskId;
+        final long deadlineMillis;
+        Kind kind; //что сработает следующим
+        long tick;
+        int level; //LEVELS - в списке дальних
+        Reminder previous = this;
+        Reminder next = this;
+
+        Reminder(long taskId, long deadlineMillis) {
+            this.taskId = taskId;
+            this.deadlineMillis = deadlineMillis;
+        }
+    }
+
+    //последние напоминания для тех, кто забирает их сам (GET /reminders): кольцо из capacity штук
+    static final class Recent implements Sink {
+        private final int capacity;
+        private final ArrayDeque<Notice> notices = new ArrayDeque<>();
+
+        Recent(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public synchronized void remind(List<Notice> fired) {
+            for (Notice notice : fired) {
+                if (notices.size() == capacity) notices.pollFirst();
+                notices.addLast(notice);
+            }
+        }
+
+        //напоминания с номером больше after, по порядку
+        public synchronized ArrayList<Notice> after(long after) {
+            ArrayList<Notice> found = new ArrayList<>();
+            for (Notice notice : notices) {
+                if (notice.sequence > after) found.add(notice);
+            }
+            return found;
+        }
+    }
+
+    private final long leadMillis;
+    private final LongFunction<BaseTask> tasks; //задача по id в момент срабатывания, null - ее уже нет
+    private final Reminder[][] wheel = new Reminder[LEVELS][SLOTS]; //заглушки ячеек
+    private final Reminder overflow = new Reminder(0, 0);
+    private final int[] levelSizes = new int[LEVELS + 1]; //по ним проскакиваются пустые обороты
+    private final TaskIdMap<Reminder> byTask = new TaskIdMap<>();
+    private long now; //последний обработанный шаг: все, что раньше или в нем, уже сработало
+    private long sequence;
+    private Thread thread;
+
+    DeadlineReminders(long leadMillis, long nowMillis, LongFunction<BaseTask> tasks) {
+        this.leadMillis = leadMillis;
+        this.tasks = tasks;
+        this.now = Math.floorDiv(nowMillis, TICK_MILLIS);
+        for (Reminder[] level : wheel) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                level[slot] = new Reminder(0, 0);
+            }
+        }
+    }
+
+    public synchronized int size() { return byTask.size(); }
+
+    //ставит напоминание вместо прежнего; дедлайн в прошлом сработает как OVERDUE на ближайшем шаге
+    public synchronized void schedule(long taskId, long deadlineMillis) {
+        cancel(taskId);
+        Reminder reminder = new Reminder(taskId, deadlineMillis);
+        long nowMillis = (now + 1) * TICK_MILLIS;
+        if (deadlineMillis >= nowMillis && leadMillis > 0) {
+            reminder.kind = Kind.UPCOMING; //дедлайн ближе lead - "скоро" сразу
+            reminder.tick = Math.max(now + 1, tickOf(deadlineMillis - leadMillis));
+        } else if (deadlineMillis >= nowMillis) {
+            reminder.kind = Kind.DUE;
+            reminder.tick = tickOf(deadlineMillis);
+        } else {
+            reminder.kind = Kind.OVERDUE;
+            reminder.tick = now + 1;
+        }
+        byTask.put(taskId, reminder);
+        place(reminder);
+    }
+
+    public synchronized void cancel(long taskId) {
+        Reminder reminder = byTask.remove(taskId);
+        if (reminder != null) unlink(reminder);
+    }
+
+    //раньше времени не срабатывает: шаг - первая секунда, которая не раньше момента
+    private static long tickOf(long millis) {
+        return Math.floorDiv(millis + TICK_MILLIS - 1, TICK_MILLIS);
+    }
+
+    //tick > now (или == now во время шага - тогда в ячейку, которая сейчас разбирается)
+    private void place(Reminder reminder) {
+        for (int level = 0; level < LEVELS; level++) {
+            int above = SLOT_BITS * (level + 1);
+            if (reminder.tick >>> above == now >>> above) {
+                link(wheel[level][(int) (reminder.tick >>> (SLOT_BITS * level)) & (SLOTS - 1)], reminder, level);
+                return;
+            }
+        }
+        link(overflow, reminder, LEVELS);
+    }
+
+    private void link(Reminder head, Reminder reminder, int level) {
+        reminder.level = level;
+        reminder.previous = head.previous;
+        reminder.next = head;
+        head.previous.next = reminder;
+        head.previous = reminder;
+        levelSizes[level]++;
+    }
+
+    private void unlink(Reminder reminder) {
+        levelSizes[reminder.level]--;
+        reminder.previous.next = reminder.next;
+        reminder.next.previous = reminder.previous;
+        reminder.previous = reminder;
+        reminder.next = reminder;
+    }
+
+    //прокручивает колесо до nowMillis и возвращает, что сработало (еще без задач); если нижние уровни
+    //пусты, до ближайшей границы верхнего уровня ничего случиться не может - туда и прыгаем, так что
+    //после сна компьютера колесо догоняет месяц за сотни шагов, а не за миллионы
+    synchronized ArrayList<Notice> advance(long nowMillis) {
+        ArrayList<Notice> fired = new ArrayList<>();
+        long target = Math.floorDiv(nowMillis, TICK_MILLIS);
+        while (now < target) {
+            int empty = 0;
+            while (empty < LEVELS && levelSizes[empty] == 0) {
+                empty++;
+            }
+            if (empty > 0) {
+                long boundary = (now | ((1L << (SLOT_BITS * empty)) - 1)) + 1;
+                if (boundary > target) {
+                    now = target;
+                    break;
+                }
+                now = boundary - 1;
+            }
+            tick(now + 1, nowMillis, fired);
+        }
+        return fired;
+    }
+
+    private void tick(long tick, long nowMillis, ArrayList<Notice> fired) {
+        now = tick;
+        if ((tick & ((1L << (SLOT_BITS * LEVELS)) - 1)) == 0) cascade(overflow);
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                cascade(wheel[level][(int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1)]);
+            }
+        }
+        Reminder head = wheel[0][(int) tick & (SLOTS - 1)];
+        while (head.next != head) {
+            Reminder reminder = head.next;
+            unlink(reminder);
+            fired.add(new Notice(++sequence, reminder.kind, reminder.taskId, null, reminder.deadlineMillis, nowMillis));
+            if (reminder.kind == Kind.UPCOMING) {
+                reminder.kind = Kind.DUE;
+                reminder.tick = Math.max(tick, tickOf(reminder.deadlineMillis));
+                place(reminder);
+            } else {
+                byTask.remove(reminder.taskId);
+            }
+        }
+    }
+
+    //цепочка сначала отцепляется целиком: из списка дальних напоминание может вернуться в тот же список
+    private void cascade(Reminder head) {
+        Reminder reminder = head.next;
+        head.next = head;
+        head.previous = head;
+        while (reminder != head) {
+            Reminder next = reminder.next;
+            levelSizes[reminder.level]--;
+            reminder.previous = reminder;
+            reminder.next = reminder;
+            place(reminder);
+            reminder = next;
+        }
+    }
+
+    //поток сначала выполняет prepare (раскладывает уже существующие дедлайны), затем шагает раз в секунду;
+    //задачи для сработавших напоминаний ищутся уже без блокировки колеса
+    public synchronized void start(Sink sink, Runnable prepare) {
+        if (thread != null) throw new IllegalStateException("reminders are already running");
+        thread = new Thread(() -> {
+            prepare.run();
+            run(sink);
+        }, "todo-reminders");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run(Sink sink) {
+        while (!Thread.currentThread().isInterrupted()) {
+            ArrayList<Notice> notices = new ArrayList<>();
+            for (Notice fired : advance(System.currentTimeMillis())) {
+                BaseTask task = tasks.apply(fired.taskId);
+                if (task == null) continue; //удалили, пока шаг собирался
+                notices.add(new Notice(fired.sequence, fired.kind, fired.taskId, task, fired.deadlineMillis, fired.firedAt));
+            }
+            if (!notices.isEmpty()) {
+                try {
+                    sink.remind(notices);
+                } catch (RuntimeException e) {
+                    sink.failed(e);
+                }
+            }
+            try {
+                Thread.sleep(TICK_MILLIS - System.currentTimeMillis() % TICK_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (thread != null) thread.interrupt();
+    }
+}
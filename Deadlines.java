@@ -0,0 +1,45 @@
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.ZoneId;
+
+//разбор дедлайнов: текст задачи остается как ввели, а рядом хранится момент времени
+class Deadlines {
+    static final long NONE = Long.MIN_VALUE;
+
+    private static final DateTimeFormatter[] DATE_TIME_FORMATS = {
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"),
+            DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm"),
+    };
+    private static final DateTimeFormatter[] DATE_FORMATS = {
+            DateTimeFormatter.ofPattern("yyyy-MM-dd"),
+            DateTimeFormatter.ofPattern("dd.MM.yyyy"),
+    };
+
+    static final String FORMATS_HINT = "2026-10-25, 25.10.2026, 2026-10-25 18:00 or 25.10.2026 18:00";
+
+    //NONE если текст не похож на дату; дата без времени означает конец дня
+    static long parse(String text) {
+        String value = text.trim();
+        for (DateTimeFormatter format : DATE_TIME_FORMATS) {
+            try {
+                return toMillis(LocalDateTime.parse(value, format));
+            } catch (DateTimeParseException e) {
+                //пробуем следующий формат
+            }
+        }
+        for (DateTimeFormatter format : DATE_FORMATS) {
+            try {
+                return toMillis(LocalDate.parse(value, format).atTime(23, 59));
+            } catch (DateTimeParseException e) {
+                //пробуем следующий формат
+            }
+        }
+        return NONE;
+    }
+
+    private static long toMillis(LocalDateTime dateTime) {
+        return dateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
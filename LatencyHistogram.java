@@ -0,0 +1,58 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+//гистограмма задержек в духе HdrHistogram: значения до 128 нс хранятся точно, дальше каждая степень
+//двойки делится на 64 корзины - относительная ошибка не больше 1/64 на всем диапазоне long;
+//запись без блокировок, так что ее можно вести из любого числа потоков
+class LatencyHistogram {
+    private static final int EXACT = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BITS = 6;
+    private static final int BUCKETS = EXACT + (63 - SUB_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long count() { return count.sum(); }
+    public long max() { return max.get(); }
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    //нижняя граница корзины, в которую попал percentile-й процент значений (0..100)
+    public long valueAtPercentile(double percentile) {
+        long total = count.sum();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(valueAt(i), max.get());
+        }
+        return max.get();
+    }
+
+    private static int indexOf(long value) {
+        if (value < EXACT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS; //value >>> shift попадает в [64, 128)
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long valueAt(int index) {
+        if (index < EXACT) return index;
+        int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        return (long) (SUB_BUCKETS + (index - EXACT) % SUB_BUCKETS) << shift;
+    }
+}
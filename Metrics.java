@@ -0,0 +1,187 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+//метрики: гистограмма задержек и счетчик выделенной памяти на каждую команду (пункт меню, команда
+//пакетного режима, маршрут HTTP) и датчики размеров списка; видны через JMX (todo:type=Metrics)
+//и текстом - пункт меню, команда metrics и GET /metrics
+class Metrics implements DynamicMBean {
+    static final String OBJECT_NAME = "todo:type=Metrics";
+
+    private static class Command {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder allocatedBytes = new LongAdder();
+    }
+
+    //замер одной команды: время и выделенная потоком память считаются от start() до stop() в том же потоке
+    final class Sample {
+        private final long startedNanos = System.nanoTime();
+        private final long startedBytes = allocatedBytes();
+        private final CommandEvent event = new CommandEvent();
+
+        private Sample() {
+            event.begin();
+        }
+
+        public void stop(String command) { stop(command, 0); }
+
+        //excludedNanos - время, когда команда не работала, а ждала (например, ввода пользователя)
+        public void stop(String command, long excludedNanos) {
+            long elapsed = System.nanoTime() - startedNanos - excludedNanos;
+            long bytes = startedBytes < 0 ? 0 : Math.max(0, allocatedBytes() - startedBytes);
+            Command metrics = commands.computeIfAbsent(command, name -> new Command());
+            metrics.latency.record(elapsed);
+            metrics.allocatedBytes.add(bytes);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.command = command;
+                event.allocatedBytes = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    //java.lang.management поднимается при первом замере, а не при запуске: запросу из командной строки он не нужен
+    private static final class Allocation {
+        static final com.sun.management.ThreadMXBean THREADS = threadAllocationCounter();
+    }
+
+    private final ConcurrentHashMap<String, Command> commands = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Supplier<Number>> gauges = new LinkedHashMap<>();
+
+    //датчики задаются один раз при запуске, до того как метрики начнут читать
+    public Metrics gauge(String name, Supplier<Number> value) {
+        gauges.put(name, value);
+        return this;
+    }
+
+    public Sample start() { return new Sample(); }
+
+    public void reset() { commands.clear(); }
+
+    //null если JVM не считает память по потокам
+    private static com.sun.management.ThreadMXBean threadAllocationCounter() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+            if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled()) return counter;
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return Allocation.THREADS == null ? -1 : Allocation.THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    public void registerMBean() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append("gauges:").append(System.lineSeparator());
+        for (Map.Entry<String, Supplier<Number>> gauge : gauges.entrySet()) {
+            out.append(String.format(Locale.ROOT, "  %-46s %s%n", gauge.getKey(), format(gauge.getValue().get())));
+        }
+
+        out.append(String.format(Locale.ROOT, "%-48s %7s %9s %9s %9s %9s %12s%n",
+                "commands:", "count", "p50 us", "p90 us", "p99 us", "max us", "KB alloc/op"));
+        for (String name : new TreeMap<>(commands).keySet()) {
+            Command command = commands.get(name);
+            LatencyHistogram latency = command.latency;
+            long count = latency.count();
+            out.append(String.format(Locale.ROOT, "  %-46s %7d %9.1f %9.1f %9.1f %9.1f %12.1f%n", name, count,
+                    latency.valueAtPercentile(50) / 1e3, latency.valueAtPercentile(90) / 1e3,
+                    latency.valueAtPercentile(99) / 1e3, latency.max() / 1e3,
+                    count == 0 ? 0 : command.allocatedBytes.sum() / 1024.0 / count));
+        }
+        return out.toString();
+    }
+
+    private static String format(Number value) {
+        return value instanceof Double ? String.format(Locale.ROOT, "%.2f", value.doubleValue()) : value.toString();
+    }
+
+    //JMX: датчики - как есть, у каждой команды - count, p50/p99/max в микросекундах и память на вызов
+    private LinkedHashMap<String, Supplier<Object>> attributes() {
+        LinkedHashMap<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+        for (Map.Entry<String, Supplier<Number>> gauge : gauges.entrySet()) {
+            attributes.put(gauge.getKey(), () -> gauge.getValue().get());
+        }
+        for (String name : new TreeMap<>(commands).keySet()) {
+            Command command = commands.get(name);
+            attributes.put(name + ".count", () -> command.latency.count());
+            attributes.put(name + ".p50Micros", () -> command.latency.valueAtPercentile(50) / 1e3);
+            attributes.put(name + ".p99Micros", () -> command.latency.valueAtPercentile(99) / 1e3);
+            attributes.put(name + ".maxMicros", () -> command.latency.max() / 1e3);
+            attributes.put(name + ".allocatedBytes", () -> command.allocatedBytes.sum());
+        }
+        return attributes;
+    }
+
+    public Object getAttribute(String name) throws AttributeNotFoundException {
+        Supplier<Object> attribute = attributes().get(name);
+        if (attribute == null) throw new AttributeNotFoundException(name);
+        return attribute.get();
+    }
+
+    public AttributeList getAttributes(String[] names) {
+        AttributeList result = new AttributeList();
+        LinkedHashMap<String, Supplier<Object>> attributes = attributes();
+        for (String name : names) {
+            Supplier<Object> attribute = attributes.get(name);
+            if (attribute != null) result.add(new Attribute(name, attribute.get()));
+        }
+        return result;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("metrics are read-only: " + attribute.getName());
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) { return new AttributeList(); }
+
+    public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+        switch (action) {
+            case "dump":
+                return dump();
+            case "reset":
+                reset();
+                return null;
+            default:
+                throw new ReflectionException(new NoSuchMethodException(action));
+        }
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        ArrayList<MBeanAttributeInfo> infos = new ArrayList<>();
+        for (Map.Entry<String, Supplier<Object>> attribute : attributes().entrySet()) {
+            infos.add(new MBeanAttributeInfo(attribute.getKey(), attribute.getValue().get().getClass().getName(),
+                    attribute.getKey(), true, false, false));
+        }
+        MBeanOperationInfo[] operations = {
+                new MBeanOperationInfo("dump", "metrics as text", new MBeanParameterInfo[0], String.class.getName(), MBeanOperationInfo.INFO),
+                new MBeanOperationInfo("reset", "forget command latencies", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION)
+        };
+        return new MBeanInfo(getClass().getName(), "to-do list metrics", infos.toArray(new MBeanAttributeInfo[0]),
+                null, operations, null);
+    }
+}
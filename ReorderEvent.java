@@ -0,0 +1,20 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("todo.Reorder")
+@Label("Task Reorder")
+@Category("To-Do")
+@Threshold("1 ms")
+class ReorderEvent extends Event {
+    @Label("Moved Tasks")
+    int moved;
+
+    @Label("Target Position")
+    int to;
+
+    @Label("Tasks")
+    int tasks;
+}
@@ -0,0 +1,22 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+//события JFR: медленные поиски, перестановки и команды попадают в запись
+//(java -XX:StartFlightRecording=filename=todo.jfr ToDo), быстрые отсекаются порогом
+@Name("todo.Search")
+@Label("Task Search")
+@Category("To-Do")
+@Threshold("1 ms")
+class SearchEvent extends Event {
+    @Label("Query")
+    String query;
+
+    @Label("Hits")
+    int hits;
+
+    @Label("Tasks")
+    int tasks;
+}
@@ -0,0 +1,11 @@
+class SearchHit {
+    final BaseTask task;
+    final Task subtask; //null если совпала сама задача, иначе подзадача любой глубины
+    final int order; //-1 для самой задачи, иначе номер подзадачи при обходе дерева сверху вниз - для сортировки
+
+    SearchHit(BaseTask task, Task subtask, int order) {
+        this.task = task;
+        this.subtask = subtask;
+        this.order = order;
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+
+class SearchIndex {
+    //инвертированный индекс по триграммам: триграмма -> задачи, где она встречается
+    private static final int GRAM = 3;
+
+    //задача вместе со всеми подзадачами ее дерева (в порядке обхода сверху вниз)
+    private static class IndexedText {
+        final String text;
+        final ArrayList<Task> subtasks = new ArrayList<>();
+        final ArrayList<String> subtaskTexts = new ArrayList<>();
+
+        IndexedText(String text) { this.text = text; }
+    }
+
+    private final HashMap<Long, HashSet<BaseTask>> postings = new HashMap<>();
+    private final IdentityHashMap<BaseTask, IndexedText> documents = new IdentityHashMap<>();
+
+    //переиндексация задачи целиком: описание, дедлайн (через toString) и все дерево подзадач
+    public void put(BaseTask task) {
+        remove(task);
+
+        IndexedText doc = new IndexedText(task.toString().toLowerCase());
+        if (task instanceof Task) {
+            collectSubtasks((Task) task, doc);
+        }
+        documents.put(task, doc);
+
+        addGrams(doc.text, task);
+        for (String subtask : doc.subtaskTexts) {
+            addGrams(subtask, task);
+        }
+    }
+
+    private static void collectSubtasks(Task task, IndexedText doc) {
+        for (Task subtask : task.getSubtasks()) {
+            doc.subtasks.add(subtask);
+            doc.subtaskTexts.add(subtask.toString().toLowerCase());
+            if (subtask.hasSubtasks()) collectSubtasks(subtask, doc);
+        }
+    }
+
+    public void remove(BaseTask task) {
+        IndexedText doc = documents.remove(task);
+        if (doc == null) return;
+
+        removeGrams(doc.text, task);
+        for (String subtask : doc.subtaskTexts) {
+            removeGrams(subtask, task);
+        }
+    }
+
+    public ArrayList<SearchHit> find(String query) {
+        String needle = query.toLowerCase();
+        ArrayList<SearchHit> hits = new ArrayList<>();
+
+        if (needle.length() < GRAM) {
+            //короткий запрос не разбить на триграммы - проверяем уже приведенные к нижнему регистру тексты
+            for (var entry : documents.entrySet()) {
+                collectHits(entry.getKey(), entry.getValue(), needle, hits);
+            }
+            return hits;
+        }
+
+        //берем самый короткий список кандидатов, остальные триграммы проверяем по нему
+        HashSet<BaseTask> smallest = null;
+        for (int i = 0; i + GRAM <= needle.length(); i++) {
+            HashSet<BaseTask> posting = postings.get(gramKey(needle, i));
+            if (posting == null) return hits;
+            if (smallest == null || posting.size() < smallest.size()) {
+                smallest = posting;
+            }
+        }
+
+        for (BaseTask task : smallest) {
+            collectHits(task, documents.get(task), needle, hits);
+        }
+        return hits;
+    }
+
+    private void collectHits(BaseTask task, IndexedText doc, String needle, ArrayList<SearchHit> hits) {
+        if (doc.text.contains(needle)) {
+            hits.add(new SearchHit(task, null, -1));
+        }
+        for (int j = 0; j < doc.subtaskTexts.size(); j++) {
+            if (doc.subtaskTexts.get(j).contains(needle)) {
+                hits.add(new SearchHit(task, doc.subtasks.get(j), j));
+            }
+        }
+    }
+
+    private void addGrams(String text, BaseTask task) {
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            postings.computeIfAbsent(gramKey(text, i), key -> new HashSet<>()).add(task);
+        }
+    }
+
+    private void removeGrams(String text, BaseTask task) {
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            Long key = gramKey(text, i);
+            HashSet<BaseTask> posting = postings.get(key);
+            if (posting != null && posting.remove(task) && posting.isEmpty()) {
+                postings.remove(key);
+            }
+        }
+    }
+
+    //три символа по 16 бит упаковываются в одно число
+    private static long gramKey(String text, int from) {
+        return ((long) text.charAt(from) << 32) | ((long) text.charAt(from + 1) << 16) | text.charAt(from + 2);
+    }
+}
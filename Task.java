@@ -0,0 +1,207 @@
+import java.util.List;
+
+//задача и подзадача - один и тот же узел дерева: у подзадачи свои дедлайн, отметка о выполнении
+//и подзадачи любой глубины, а приоритет - позиция среди соседей
+class Task extends BaseTask {
+    private static final List<Task> NO_SUBTASKS = List.of();
+
+    //подзадачи узла, которые еще лежат в снимке: читаются при первом обращении к ним
+    interface SubtaskLoader {
+        List<Task> load();
+    }
+
+    private volatile String deadline; //null пока дедлайн не задан
+    private volatile long deadlineMillis = Deadlines.NONE; //разобранный дедлайн, если текст удалось разобрать
+    //неизменяемый список, создается вместе с первой подзадачей; правка подменяет его целиком,
+    //поэтому читатель без блокировки видит либо старый, либо новый список, но не половину правки
+    private volatile List<Task> subtasks;
+    private volatile SubtaskLoader unloaded; //не null, пока подзадачи не прочитаны из снимка
+    volatile Task parent; //null у задачи списка и у подзадачи, лежащей в корзине
+    private volatile boolean done;
+    //итоги по всему поддереву без самого узла: сколько подзадач и сколько из них выполнено;
+    //правка пересчитывает их только у предков, а у непрочитанных веток они берутся из снимка
+    private volatile int subtreeSize;
+    private volatile int subtreeDone;
+
+    public Task(String description, int priority) {
+        super(description, priority);
+    }
+
+    public Task(String description, int priority, long createdMillis) {
+        super(description, priority, createdMillis);
+    }
+
+    public List<Task> getSubtasks() {
+        List<Task> current = subtasks;
+        if (current == null && unloaded != null) current = loadSubtasks();
+        return current != null ? current : NO_SUBTASKS;
+    }
+
+    //список пишется раньше, чем обнуляется загрузчик: кто не увидел загрузчик, увидит и список
+    private synchronized List<Task> loadSubtasks() {
+        SubtaskLoader loader = unloaded;
+        if (loader != null) {
+            List<Task> loaded = loader.load();
+            for (Task subtask : loaded) {
+                subtask.parent = this;
+            }
+            subtasks = loaded.isEmpty() ? null : loaded;
+            unloaded = null;
+        }
+        return subtasks;
+    }
+
+    //загрузчик еще не прочитанных подзадач (null, если они уже в памяти или их нет)
+    SubtaskLoader getUnloaded() { return unloaded; }
+
+    //без чтения из снимка
+    public boolean hasSubtasks() { return subtreeSize > 0; }
+    public int getSubtreeSize() { return subtreeSize; }
+    public int getSubtreeDone() { return subtreeDone; }
+    public boolean isDone() { return done; }
+
+    public String getDeadline() { return deadline != null ? deadline : ""; }
+    public boolean hasDeadline() { return deadline != null; }
+    public long getDeadlineMillis() { return deadlineMillis; }
+
+    public int getPriority() {
+        Task up = parent;
+        return up != null ? up.getSubtasks().indexOf(this) + 1 : super.getPriority();
+    }
+
+    public void setDeadline(String deadline) {
+        setDeadline(deadline, deadline == null ? Deadlines.NONE : Deadlines.parse(deadline));
+    }
+
+    //для загрузки, когда момент дедлайна уже известен и разбирать текст заново не нужно
+    //момент пишется раньше текста: кто увидел новый текст, увидит и новый момент
+    public void setDeadline(String deadline, long deadlineMillis) {
+        boolean none = deadline == null || deadline.isEmpty();
+        this.deadlineMillis = none ? Deadlines.NONE : deadlineMillis;
+        this.deadline = none ? null : deadline;
+    }
+
+    public void setDone(boolean done) {
+        if (this.done == done) return;
+        this.done = done;
+        for (Task up = parent; up != null; up = up.parent) {
+            up.subtreeDone += done ? 1 : -1;
+        }
+    }
+
+    //состояние узла из снимка или файла корзины: итоги поддерева известны, сами подзадачи - по loader
+    void load(boolean done, int subtreeSize, int subtreeDone, SubtaskLoader loader) {
+        this.done = done;
+        this.subtreeSize = subtreeSize;
+        this.subtreeDone = subtreeDone;
+        this.unloaded = loader;
+    }
+
+    //подзадач обычно немного, так что копия списка на каждую правку дешевая (а List.of на 1-2 элемента и без массива)
+    public void addSubtask(Task subtask) {
+        insertSubtask(getSubtasks().size(), subtask);
+    }
+
+    public void insertSubtask(int position, Task subtask) {
+        List<Task> current = getSubtasks();
+        Task[] next = new Task[current.size() + 1];
+        for (int i = 0, j = 0; i < next.length; i++) {
+            next[i] = i == position ? subtask : current.get(j++);
+        }
+        subtask.parent = this;
+        subtasks = List.of(next);
+        adjustTotals(subtask.subtreeSize + 1, subtask.subtreeDone + (subtask.done ? 1 : 0));
+    }
+
+    //подзадача уходит вместе со своим поддеревом
+    public Task removeSubtask(int index) {
+        List<Task> current = getSubtasks();
+        Task removed = current.get(index);
+        if (current.size() == 1) {
+            subtasks = null;
+        } else {
+            Task[] next = new Task[current.size() - 1];
+            for (int i = 0, j = 0; i < current.size(); i++) {
+                if (i != index) next[j++] = current.get(i);
+            }
+            subtasks = List.of(next);
+        }
+        removed.parent = null;
+        adjustTotals(-removed.subtreeSize - 1, -removed.subtreeDone - (removed.done ? 1 : 0));
+        return removed;
+    }
+
+    //все подзадачи нового узла сразу: при импорте дерева из файла addSubtask копировал бы список на каждого ребенка
+    void attachSubtasks(Task[] children) {
+        if (children.length == 0) return;
+        int size = 0;
+        int doneCount = 0;
+        for (Task child : children) {
+            child.parent = this;
+            size += child.subtreeSize + 1;
+            doneCount += child.subtreeDone + (child.done ? 1 : 0);
+        }
+        subtasks = List.of(children);
+        adjustTotals(size, doneCount);
+    }
+
+    private void adjustTotals(int size, int doneCount) {
+        for (Task node = this; node != null; node = node.parent) {
+            node.subtreeSize += size;
+            node.subtreeDone += doneCount;
+        }
+    }
+
+    //узел по пути из позиций с нуля; пустой путь - сам узел
+    public Task getSubtask(int[] path) {
+        Task node = this;
+        for (int position : path) {
+            List<Task> children = node.getSubtasks();
+            if (position < 0 || position >= children.size()) {
+                throw new IndexOutOfBoundsException("subtask " + (position + 1) + " out of 1.." + children.size());
+            }
+            node = children.get(position);
+        }
+        return node;
+    }
+
+    //задача списка (или корень поддерева в корзине), к которой относится узел
+    public Task getRoot() {
+        Task node = this;
+        for (Task up = node.parent; up != null; up = up.parent) {
+            node = up;
+        }
+        return node;
+    }
+
+    //номер узла вида 3.1.2 от номера задачи списка
+    public String getNumber(int taskNumber) {
+        if (parent == null) return Integer.toString(taskNumber);
+        return parent.getNumber(taskNumber) + "." + getPriority();
+    }
+
+    //поиск узла в поддереве по id - читает из снимка все поддерево, поэтому только для редких случаев
+    public Task find(long id) {
+        if (this.id == id) return this;
+        for (Task subtask : getSubtasks()) {
+            Task found = subtask.find(id);
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        appendTo(result);
+        return result.toString();
+    }
+
+    public void appendTo(StringBuilder out) {
+        out.append(description);
+        String until = deadline;
+        if (until != null) {
+            out.append(" ----------------- until:").append(until);
+        }
+    }
+
+}
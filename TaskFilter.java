@@ -0,0 +1,47 @@
+//условие запроса к списку (TaskList.query); priority - позиция задачи + 1, при обходе она уже известна,
+//поэтому условие на приоритет ничего не стоит. Условия складываются через and/or/negate
+interface TaskFilter {
+    boolean test(BaseTask task, int priority);
+
+    default TaskFilter and(TaskFilter other) { return (task, priority) -> test(task, priority) && other.test(task, priority); }
+    default TaskFilter or(TaskFilter other) { return (task, priority) -> test(task, priority) || other.test(task, priority); }
+    default TaskFilter negate() { return (task, priority) -> !test(task, priority); }
+
+    static TaskFilter all() { return (task, priority) -> true; }
+
+    static TaskFilter priorityBetween(int min, int max) { return (task, priority) -> priority >= min && priority <= max; }
+
+    //fromMillis включительно, toMillis - нет
+    static TaskFilter createdBetween(long fromMillis, long toMillis) {
+        return (task, priority) -> task.getCreatedMillis() >= fromMillis && task.getCreatedMillis() < toMillis;
+    }
+
+    static TaskFilter hasDeadline() { return (task, priority) -> task instanceof Task && ((Task) task).hasDeadline(); }
+
+    static TaskFilter dueBetween(long fromMillis, long toMillis) {
+        return hasDeadline().and((task, priority) -> {
+            long deadline = ((Task) task).getDeadlineMillis();
+            return deadline >= fromMillis && deadline < toMillis;
+        });
+    }
+
+    static TaskFilter done(boolean done) { return (task, priority) -> task instanceof Task && ((Task) task).isDone() == done; }
+
+    //описание содержит текст без учета регистра
+    static TaskFilter text(String needle) { return (task, priority) -> containsIgnoreCase(task.description, needle); }
+
+    //как toLowerCase().contains(), но без новых строк: первый символ сравнивается в обоих регистрах,
+    //остальное - regionMatches(ignoreCase), который тоже ничего не создает
+    static boolean containsIgnoreCase(String text, String needle) {
+        int length = needle.length();
+        if (length == 0) return true;
+        char lower = Character.toLowerCase(needle.charAt(0));
+        char upper = Character.toUpperCase(needle.charAt(0));
+        for (int i = 0, last = text.length() - length; i <= last; i++) {
+            char c = text.charAt(i);
+            if (c != lower && c != upper && c < 128) continue; //у остальных символов регистров бывает больше двух
+            if (text.regionMatches(true, i, needle, 0, length)) return true;
+        }
+        return false;
+    }
+}
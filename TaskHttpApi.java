@@ -0,0 +1,869 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+//HTTP/JSON доступ к тем же операциям, что и меню: java ToDo --http <порт> [<адрес>]
+//авторизации нет, поэтому по умолчанию сервер слушает только loopback; другой адрес (например 0.0.0.0) - только явно
+//каждый запрос обрабатывается в своем потоке (виртуальном, если JVM их умеет), а большие списки
+//пишутся в ответ по мере чтения страницами, так что память не зависит от длины списка
+//
+//GET    /tasks?order=priority|date|deadline|description&from=1&count=N   список
+//GET    /tasks/{n}                                задача; вместо позиции {n} везде можно id:12
+//       у GET-запросов задач ?depth=N (по умолчанию 1, all - все) - сколько уровней подзадач раскрыть
+//POST   /tasks                {"description"}     новая задача
+//PUT    /tasks/{n}            {"description", "deadline", "done"} (любое из них)
+//DELETE /tasks/{n}
+//POST   /tasks/{n}/subtasks[/{m}]   {"text"}      подзадача задачи или подзадачи {m} (путь вида 1.2)
+//PUT    /tasks/{n}/subtasks/{m}     {"deadline", "done"}
+//DELETE /tasks/{n}/subtasks/{m}     вместе со своими подзадачами
+//POST   /tasks/{n}/priority   {"priority"}
+//GET    /search?q=текст
+//GET    /filter?q=текст&priority=N-M&created=дата..дата&due=дата..дата&deadline=yes|no&done=yes|no
+//       все условия необязательны и складываются через И; у дат любая сторона может быть пустой
+//GET    /deadlines?before=дата | ?overdue | ?next=N
+//GET    /deleted              POST /deleted/{id}/restore
+//GET    /deleted-subtasks     POST /deleted-subtasks/{id}/restore
+//POST   /undo   POST /redo    отменить или повторить последнюю правку
+//GET    /reminders?after=N    напоминания о дедлайнах с номером больше N (последние 1000; только список по умолчанию)
+//
+//те же запросы к именованному списку (см. Workspaces): /workspaces/{имя}/tasks..., /workspaces/{имя}/search...;
+//список (и его каталог) создается первым изменяющим запросом, GET к несуществующему - 404.
+//GET /workspaces - имена списков и какие из них сейчас в памяти
+class TaskHttpApi implements HttpHandler {
+    private static final int STREAM_PAGE = 1000; //столько задач читается из списка за раз
+    private static final int MAX_BODY = 16 * 1024;
+    private static final int BACKLOG = 4096; //очередь входящих соединений - на тысячи одновременных клиентов
+
+    private final TaskList list;
+    private final Workspaces workspaces; //null - только список по умолчанию
+    private final DeadlineReminders.Recent reminders; //null - напоминания не запущены
+    private final Metrics metrics;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    TaskHttpApi(TaskList list, Metrics metrics) {
+        this(list, null, null, metrics);
+    }
+
+    TaskHttpApi(TaskList list, Workspaces workspaces, DeadlineReminders.Recent reminders, Metrics metrics) {
+        this.list = list;
+        this.workspaces = workspaces;
+        this.reminders = reminders;
+        this.metrics = metrics;
+    }
+
+    public void start(int port) throws IOException {
+        start(InetAddress.getLoopbackAddress(), port);
+    }
+
+    public void start(InetAddress address, int port) throws IOException {
+        //без TCP_NODELAY маленький ответ ждет подтверждения предыдущего пакета (Nagle + delayed ACK) - ~40 мс на запрос;
+        //свойство читается при первом создании сервера, поэтому ставим его до create
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(address, port), BACKLOG);
+        executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/", this);
+        server.start();
+    }
+
+    public int getPort() { return server.getAddress().getPort(); }
+
+    //адрес для сообщения о запуске: localhost для loopback, 0.0.0.0 для всех интерфейсов, иначе сам адрес
+    public String getUrl() {
+        InetAddress address = server.getAddress().getAddress();
+        String host = address.isLoopbackAddress() ? "localhost" : address.isAnyLocalAddress() ? "0.0.0.0"
+                : address instanceof Inet6Address ? "[" + address.getHostAddress() + "]" : address.getHostAddress();
+        return "http://" + host + ":" + getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    //виртуальные потоки появились в Java 21; на более старой JVM - обычный пул, который растет вместе с нагрузкой
+    static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "todo-http");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        Metrics.Sample sample = metrics.start();
+        try {
+            route(exchange, method, path);
+        } catch (IllegalArgumentException e) {
+            fail(exchange, 400, e.getMessage());
+        } catch (IndexOutOfBoundsException e) {
+            fail(exchange, 404, "no such task: " + e.getMessage());
+        } catch (NoSuchElementException e) {
+            fail(exchange, 404, e.getMessage());
+        } catch (RuntimeException e) {
+            fail(exchange, 500, "unexpected error: " + e.getMessage());
+        } finally {
+            exchange.close();
+            sample.stop(routeName(method, path));
+        }
+    }
+
+    //имя маршрута для метрик: номера и id заменены на {n}, чтобы на каждую задачу не заводилась своя гистограмма
+    private static String routeName(String method, String[] path) {
+        String resource = path.length > 1 ? path[1] : "";
+        switch (resource) {
+            case "workspaces":
+                if (path.length <= 3) return "http." + method + " /workspaces" + (path.length == 3 ? "/{w}" : "");
+                return routeName(method, workspacePath(path)).replace(" /", " /workspaces/{w}/");
+            case "tasks":
+                if (path.length == 2) return "http." + method + " /tasks";
+                if (path.length == 3) return "http." + method + " /tasks/{n}";
+                if (path.length == 4) return "http." + method + " /tasks/{n}/" + path[3];
+                return "http." + method + " /tasks/{n}/" + path[3] + "/{m}";
+            case "deleted":
+            case "deleted-subtasks":
+                return "http." + method + " /" + resource + (path.length > 2 ? "/{id}/restore" : "");
+            case "search":
+            case "filter":
+            case "deadlines":
+            case "undo":
+            case "redo":
+            case "reminders":
+            case "metrics":
+                return "http." + method + " /" + resource;
+            default:
+                return "http.other";
+        }
+    }
+
+    //path начинается с "/", поэтому path[0] всегда пустой
+    private void route(HttpExchange exchange, String method, String[] path) throws IOException {
+        String resource = path.length > 1 ? path[1] : "";
+        if (resource.equals("workspaces") && workspaces != null) {
+            routeWorkspace(exchange, method, path);
+            return;
+        }
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        int depth = parseDepth(query.getOrDefault("depth", "1"));
+
+        if (resource.equals("tasks") && path.length == 2) {
+            if (method.equals("GET")) {
+                TaskSorter.Order order = parseOrder(query.getOrDefault("order", "priority"));
+                int from = query.containsKey("from") ? parseNumber(query.get("from")) - 1 : 0;
+                int count = query.containsKey("count") ? parseNumber(query.get("count")) : Integer.MAX_VALUE;
+                streamTasks(exchange, (start, size) -> list.page(order, start, size), from, count, depth);
+            } else if (method.equals("POST")) {
+                String description = requireText(readBody(exchange), "description", ToDo.DESCRIPTION_MAX_LENGTH);
+                Task task = list.insertTask(description, System.currentTimeMillis());
+                sendTask(exchange, 201, task);
+            } else {
+                sendError(exchange, 405, "use GET or POST");
+            }
+        } else if (resource.equals("tasks") && path.length == 3) {
+            switch (method) {
+                case "GET":
+                    sendTask(exchange, 200, taskAt(path[2]), depth);
+                    break;
+                case "PUT": {
+                    //все проверяется до правки: иначе неверный дедлайн отклонил бы запрос, уже поменявший текст
+                    Map<String, String> body = readBody(exchange);
+                    if (!body.containsKey("description") && !body.containsKey("deadline") && !body.containsKey("done")) {
+                        throw new IllegalArgumentException("nothing to change: send description, deadline and/or done");
+                    }
+                    String description = body.containsKey("description")
+                            ? requireText(body, "description", ToDo.DESCRIPTION_MAX_LENGTH) : null;
+                    checkNode(body);
+                    sendTask(exchange, 200, atTask(path[2], index -> {
+                        if (description != null) list.editDescription(index, description);
+                        updateNode(body, index, TaskList.NO_PATH);
+                        return list.get(index);
+                    }), depth);
+                    break;
+                }
+                case "DELETE":
+                    sendTask(exchange, 200, atTask(path[2], list::removeTask));
+                    break;
+                default:
+                    sendError(exchange, 405, "use GET, PUT or DELETE");
+            }
+        } else if (resource.equals("tasks") && path.length >= 4 && path[3].equals("subtasks")) {
+            int[] subtaskPath = path.length == 5 ? parsePath(path[4]) : TaskList.NO_PATH;
+            Map<String, String> body;
+            String text = null;
+            if (method.equals("POST") && path.length <= 5) {
+                body = readBody(exchange);
+                text = requireText(body, "text", ToDo.SUBTASK_MAX_LENGTH);
+            } else if (method.equals("PUT") && path.length == 5) {
+                body = readBody(exchange);
+                if (!body.containsKey("deadline") && !body.containsKey("done")) {
+                    throw new IllegalArgumentException("nothing to change: send deadline and/or done");
+                }
+                checkNode(body);
+            } else if (method.equals("DELETE") && path.length == 5) {
+                body = null;
+            } else {
+                sendError(exchange, 405, "use POST /tasks/{n}/subtasks[/{m}], PUT or DELETE /tasks/{n}/subtasks/{m}");
+                return;
+            }
+
+            String subtask = text;
+            String[] missing = { null };
+            BaseTask task = atTask(path[2], index -> {
+                if (list.getTask(index) == null) throw new IllegalArgumentException("task " + path[2] + " cannot have subtasks");
+                try {
+                    list.getSubtask(index, subtaskPath);
+                } catch (IndexOutOfBoundsException e) {
+                    missing[0] = e.getMessage();
+                    return null;
+                }
+                if (subtask != null) {
+                    list.appendSubtask(index, subtaskPath, subtask);
+                } else if (body != null) {
+                    updateNode(body, index, subtaskPath);
+                } else {
+                    list.removeSubtask(index, subtaskPath);
+                }
+                return list.get(index);
+            });
+            if (task == null) {
+                sendError(exchange, 404, "no such subtask: " + path[2] + "/" + path[4] + " (" + missing[0] + ")");
+                return;
+            }
+            sendTask(exchange, 200, task, depth);
+        } else if (resource.equals("tasks") && path.length == 4 && path[3].equals("priority") && method.equals("POST")) {
+            int priority = parseNumber(readBody(exchange).get("priority"));
+            sendTask(exchange, 200, atTask(path[2], index -> {
+                if (priority > list.size()) {
+                    throw new IllegalArgumentException("priority must be between 1 and " + list.size());
+                }
+                BaseTask task = list.get(index);
+                list.moveTask(index, priority - TaskList.FIRST_PRIORITY);
+                return task;
+            }));
+        } else if (resource.equals("search") && method.equals("GET")) {
+            String text = query.getOrDefault("q", "");
+            String error = ToDo.checkText(text, ToDo.SEARCH_MAX_LENGTH);
+            if (error != null) throw new IllegalArgumentException(error);
+            sendHits(exchange, list.search(text), depth);
+        } else if (resource.equals("filter") && method.equals("GET")) {
+            List<BaseTask> found = filter(query);
+            streamTasks(exchange, (start, size) -> found.subList(Math.min(start, found.size()),
+                    (int) Math.min((long) start + size, found.size())), 0, found.size(), depth);
+        } else if (resource.equals("deadlines") && method.equals("GET")) {
+            List<BaseTask> found;
+            if (query.containsKey("before")) {
+                long before = Deadlines.parse(query.get("before"));
+                if (before == Deadlines.NONE) throw new IllegalArgumentException("cannot read this date, use: " + Deadlines.FORMATS_HINT);
+                found = list.dueBefore(before);
+            } else if (query.containsKey("overdue")) {
+                found = list.dueBefore(System.currentTimeMillis());
+            } else if (query.containsKey("next")) {
+                found = list.nextDue(System.currentTimeMillis(), parseNumber(query.get("next")));
+            } else {
+                found = null;
+            }
+            if (found == null) {
+                streamTasks(exchange, (start, size) -> list.page(TaskSorter.Order.DEADLINE, start, size), 0, Integer.MAX_VALUE, depth);
+            } else {
+                streamTasks(exchange, (start, size) -> found.subList(Math.min(start, found.size()),
+                        (int) Math.min((long) start + size, found.size())), 0, found.size(), depth);
+            }
+        } else if (resource.equals("reminders") && path.length == 2 && method.equals("GET") && reminders != null) {
+            long after = query.containsKey("after") ? parseSequence(query.get("after")) : 0;
+            StringWriter out = new StringWriter();
+            out.write('[');
+            for (DeadlineReminders.Notice notice : reminders.after(after)) {
+                if (out.getBuffer().length() > 1) out.write(',');
+                out.write("{\"seq\":" + notice.sequence + ",\"kind\":\"" + notice.kind.name().toLowerCase(Locale.ROOT)
+                        + "\",\"fired\":" + notice.firedAt + ",\"deadline\":" + notice.deadlineMillis + ",\"task\":");
+                writeTask(out, notice.task, notice.task.getPriority(), 0);
+                out.write('}');
+            }
+            out.write(']');
+            send(exchange, 200, out.toString());
+        } else if ((resource.equals("undo") || resource.equals("redo")) && path.length == 2 && method.equals("POST")) {
+            boolean done;
+            try {
+                done = resource.equals("undo") ? list.undo() : list.redo();
+            } catch (IllegalStateException e) {
+                sendError(exchange, 409, "cannot " + resource + ": " + e.getMessage());
+                return;
+            }
+            if (!done) {
+                sendError(exchange, 409, "nothing to " + resource);
+                return;
+            }
+            send(exchange, 200, "{\"undo\":" + list.getUndoCount() + ",\"redo\":" + list.getRedoCount() + "}");
+        } else if (resource.equals("metrics") && method.equals("GET")) {
+            byte[] bytes = metrics.dump().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } else if (resource.equals("deleted") && path.length == 2 && method.equals("GET")) {
+            streamDeletedTasks(exchange, depth);
+        } else if (resource.equals("deleted") && path.length == 4 && path[3].equals("restore") && method.equals("POST")) {
+            long id = parseId(path[2]);
+            BaseTask restoredTask;
+            try {
+                restoredTask = list.restoreArchivedTask(id);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 404, e.getMessage()); //в корзине нет такого id
+                return;
+            }
+            sendTask(exchange, 200, restoredTask, depth);
+        } else if (resource.equals("deleted-subtasks") && path.length == 2 && method.equals("GET")) {
+            streamDeletedSubtasks(exchange);
+        } else if (resource.equals("deleted-subtasks") && path.length == 4 && path[3].equals("restore") && method.equals("POST")) {
+            long id = parseId(path[2]);
+            Task parentTask;
+            try {
+                parentTask = list.restoreArchivedSubtask(id);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 404, e.getMessage());
+                return;
+            }
+            if (parentTask == null) {
+                sendError(exchange, 409, "cannot restore subtask - original task is not in the list (restore the task first)");
+            } else {
+                sendTask(exchange, 200, parentTask, depth);
+            }
+        } else {
+            sendError(exchange, 404, "unknown resource: " + exchange.getRequestURI().getPath());
+        }
+    }
+
+    private List<BaseTask> filter(Map<String, String> query) {
+        TaskFilter filter = TaskFilter.all();
+        if (query.containsKey("q")) {
+            String text = query.get("q").trim();
+            String error = ToDo.checkText(text, ToDo.SEARCH_MAX_LENGTH);
+            if (error != null) throw new IllegalArgumentException("q: " + error);
+            filter = filter.and(TaskFilter.text(text));
+        }
+        if (query.containsKey("created")) {
+            long[] range = parseDateRange(query.get("created"));
+            filter = filter.and(TaskFilter.createdBetween(range[0], range[1]));
+        }
+        if (query.containsKey("due")) {
+            long[] range = parseDateRange(query.get("due"));
+            filter = filter.and(TaskFilter.dueBetween(range[0], range[1]));
+        }
+        if (query.containsKey("deadline")) {
+            filter = filter.and(parseYesNo(query.get("deadline")) ? TaskFilter.hasDeadline() : TaskFilter.hasDeadline().negate());
+        }
+        if (query.containsKey("done")) {
+            filter = filter.and(TaskFilter.done(parseYesNo(query.get("done"))));
+        }
+
+        //диапазон приоритетов - это диапазон позиций, остальное список даже не просматривает
+        if (!query.containsKey("priority")) return list.query(filter);
+        String[] bounds = query.get("priority").split("-", 2);
+        int first = parseNumber(bounds[0]);
+        int last = bounds.length > 1 ? parseNumber(bounds[1]) : first;
+        if (last < first) throw new IllegalArgumentException("priority range is empty: " + query.get("priority"));
+        return list.query(first - TaskList.FIRST_PRIORITY, last - TaskList.FIRST_PRIORITY + 1, filter);
+    }
+
+    //"дата..дата", любая сторона может быть пустой; вторая дата не входит в диапазон
+    private static long[] parseDateRange(String text) {
+        int dots = text.indexOf("..");
+        if (dots == -1) throw new IllegalArgumentException("expected a date range like 2026-01-01..2026-02-01, got: " + text);
+        return new long[] { parseDate(text.substring(0, dots), Long.MIN_VALUE), parseDate(text.substring(dots + 2), Long.MAX_VALUE) };
+    }
+
+    private static long parseDate(String text, long empty) {
+        if (text.trim().isEmpty()) return empty;
+        long millis = Deadlines.parse(text.trim());
+        if (millis == Deadlines.NONE) throw new IllegalArgumentException("cannot read this date, use: " + Deadlines.FORMATS_HINT);
+        return millis;
+    }
+
+    private static boolean parseYesNo(String text) {
+        switch (text) {
+            case "yes": case "true": return true;
+            case "no": case "false": return false;
+            default: throw new IllegalArgumentException("expected yes or no, got: " + text);
+        }
+    }
+
+    //дедлайн и отметка о выполнении - общие для задачи (пустой путь) и подзадачи любой глубины
+    //дедлайн и отметка из тела запроса проверяются до правки, а применяются в updateNode
+    private static void checkNode(Map<String, String> body) {
+        if (body.containsKey("deadline")) {
+            String deadline = requireText(body, "deadline", ToDo.DEADLINE_MAX_LENGTH);
+            if (Deadlines.parse(deadline) == Deadlines.NONE) {
+                throw new IllegalArgumentException("cannot read this date, use: " + Deadlines.FORMATS_HINT);
+            }
+        }
+        if (body.containsKey("done")) {
+            String done = body.get("done");
+            if (!done.equals("true") && !done.equals("false")) throw new IllegalArgumentException("done must be true or false");
+        }
+    }
+
+    private void updateNode(Map<String, String> body, int index, int[] subtaskPath) {
+        if (body.containsKey("deadline")) list.setDeadline(index, subtaskPath, body.get("deadline").trim());
+        if (body.containsKey("done")) list.setDone(index, subtaskPath, body.get("done").equals("true"));
+    }
+
+    private interface PageSource {
+        List<BaseTask> page(int from, int count);
+    }
+
+    //ответ пишется кусками (chunked) по мере чтения страниц - весь список в памяти не собирается
+    private void streamTasks(HttpExchange exchange, PageSource pages, int from, int count, int depth) throws IOException {
+        if (from < 0) throw new IllegalArgumentException("from must be 1 or more");
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+
+        try (Writer out = responseWriter(exchange)) {
+            out.write('[');
+            int written = 0;
+            while (written < count) {
+                List<BaseTask> page = pages.page(from + written, Math.min(STREAM_PAGE, count - written));
+                for (BaseTask task : page) {
+                    if (written > 0) out.write(',');
+                    writeTask(out, task, from + written + 1, depth);
+                    written++;
+                }
+                if (page.size() < STREAM_PAGE) break;
+            }
+            out.write(']');
+        }
+    }
+
+    //подзадача в совпадении - путь вида "1.2" от задачи; сама задача раскрывается на depth уровней, как в списке
+    private void sendHits(HttpExchange exchange, List<SearchHit> hits, int depth) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = responseWriter(exchange)) {
+            out.write('[');
+            for (int i = 0; i < hits.size(); i++) {
+                SearchHit hit = hits.get(i);
+                if (i > 0) out.write(',');
+                out.write("{\"task\":");
+                writeTask(out, hit.task, hit.task.getPriority(), depth);
+                if (hit.subtask != null) {
+                    String number = hit.subtask.getNumber(hit.task.getPriority());
+                    out.write(",\"subtask\":");
+                    writeString(out, number.substring(number.indexOf('.') + 1));
+                }
+                out.write('}');
+            }
+            out.write(']');
+        }
+    }
+
+    //корзина тоже отдается страницами: выгруженные в файл записи читаются по одной
+    private void streamDeletedTasks(HttpExchange exchange, int depth) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = responseWriter(exchange)) {
+            out.write('[');
+            int written = 0;
+            while (true) {
+                List<TrashStore.Entry<BaseTask>> page = list.deletedPage(written, STREAM_PAGE);
+                for (TrashStore.Entry<BaseTask> entry : page) {
+                    if (written > 0) out.write(',');
+                    out.write("{\"deleted\":" + entry.deletedAt + ",\"task\":");
+                    writeTask(out, entry.value, written + 1, depth);
+                    out.write('}');
+                    written++;
+                }
+                if (page.size() < STREAM_PAGE) break;
+            }
+            out.write(']');
+        }
+    }
+
+    private void streamDeletedSubtasks(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = responseWriter(exchange)) {
+            out.write('[');
+            int written = 0;
+            while (true) {
+                List<TrashStore.Entry<TaskList.SubtaskArchive>> page = list.deletedSubtaskPage(written, STREAM_PAGE);
+                for (TrashStore.Entry<TaskList.SubtaskArchive> entry : page) {
+                    if (written > 0) out.write(',');
+                    Task subtask = entry.value.subtask;
+                    out.write("{\"id\":" + entry.id + ",\"task\":" + entry.value.rootId + ",\"parent\":" + entry.value.parentId
+                            + ",\"deleted\":" + entry.deletedAt + ",\"text\":");
+                    writeString(out, subtask.description);
+                    out.write(",\"subtaskCount\":" + subtask.getSubtreeSize() + '}');
+                    written++;
+                }
+                if (page.size() < STREAM_PAGE) break;
+            }
+            out.write(']');
+        }
+    }
+
+    //запрос к именованному списку идет теми же маршрутами, что и к списку по умолчанию; список не выгрузят,
+    //пока ответ не записан целиком
+    private void routeWorkspace(HttpExchange exchange, String method, String[] path) throws IOException {
+        if (path.length == 2 && method.equals("GET")) {
+            List<String> names = workspaces.names();
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = responseWriter(exchange)) {
+                out.write('[');
+                boolean first = true;
+                for (String name : names) {
+                    out.write(first ? "\n{\"name\":" : ",\n{\"name\":");
+                    first = false;
+                    writeString(out, name);
+                    out.write(",\"resident\":" + workspaces.isResident(name) + "}");
+                }
+                out.write("\n]\n");
+            }
+            return;
+        }
+        if (path.length < 4) {
+            sendError(exchange, 404, "use GET /workspaces or /workspaces/{name}/tasks...");
+            return;
+        }
+        //чтение не создает список: иначе любой GET с опечаткой в имени оставлял бы каталог на диске
+        if (method.equals("GET") && !workspaces.exists(path[2])) {
+            sendError(exchange, 404, "no list named " + path[2]);
+            return;
+        }
+        Workspaces.Lease lease;
+        try {
+            lease = workspaces.acquire(path[2]);
+        } catch (IOException e) {
+            sendError(exchange, 503, "cannot load list " + path[2] + ": " + e.getMessage());
+            return;
+        }
+        try {
+            new TaskHttpApi(lease.list(), metrics).route(exchange, method, workspacePath(path));
+        } finally {
+            lease.close();
+        }
+    }
+
+    //путь внутри списка: /workspaces/{имя}/tasks/1 -> /tasks/1
+    private static String[] workspacePath(String[] path) {
+        String[] inner = new String[path.length - 2];
+        inner[0] = "";
+        System.arraycopy(path, 3, inner, 1, path.length - 3);
+        return inner;
+    }
+
+    private void sendTask(HttpExchange exchange, int status, BaseTask task) throws IOException {
+        sendTask(exchange, status, task, 1);
+    }
+
+    private void sendTask(HttpExchange exchange, int status, BaseTask task, int depth) throws IOException {
+        StringWriter body = new StringWriter();
+        writeTask(body, task, task.getPriority(), depth);
+        send(exchange, status, body.toString());
+    }
+
+    //ошибка, вылетевшая из маршрута: если потоковый ответ уже отправил заголовки (код 200, длина 0), второй раз
+    //их не послать - ответ обрывается на том, что успело уйти, а exchange закрывает handle
+    private void fail(HttpExchange exchange, int status, String message) throws IOException {
+        if (exchange.getResponseCode() != -1) return;
+        sendError(exchange, status, message);
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringWriter body = new StringWriter();
+        body.write("{\"error\":");
+        writeString(body, message);
+        body.write('}');
+        send(exchange, status, body.toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Writer responseWriter(HttpExchange exchange) {
+        return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    //depth - сколько уровней подзадач выписать; у невыписанных узлов остаются только итоги
+    //subtaskCount/doneCount, а сами подзадачи из снимка не читаются
+    private static void writeTask(Writer out, BaseTask task, int number, int depth) throws IOException {
+        out.write("{\"id\":" + task.getId() + ",\"number\":" + number + ",\"priority\":" + task.getPriority()
+                + ",\"description\":");
+        writeString(out, task.description);
+        out.write(",\"created\":" + task.getCreatedMillis());
+        if (task instanceof Task) {
+            writeNode(out, (Task) task, Integer.toString(number), depth);
+        }
+        out.write('}');
+    }
+
+    private static void writeNode(Writer out, Task node, String number, int depth) throws IOException {
+        if (node.hasDeadline()) {
+            out.write(",\"deadline\":");
+            writeString(out, node.getDeadline());
+        }
+        out.write(",\"done\":" + node.isDone());
+        if (!node.hasSubtasks()) return;
+
+        out.write(",\"subtaskCount\":" + node.getSubtreeSize() + ",\"doneCount\":" + node.getSubtreeDone());
+        if (depth <= 0) return;
+        out.write(",\"subtasks\":[");
+        List<Task> subtasks = node.getSubtasks();
+        for (int i = 0; i < subtasks.size(); i++) {
+            Task subtask = subtasks.get(i);
+            String subtaskNumber = number + '.' + (i + 1);
+            if (i > 0) out.write(',');
+            out.write("{\"id\":" + subtask.getId() + ",\"number\":\"" + subtaskNumber + "\",\"description\":");
+            writeString(out, subtask.description);
+            out.write(",\"created\":" + subtask.getCreatedMillis());
+            writeNode(out, subtask, subtaskNumber, depth - 1);
+            out.write('}');
+        }
+        out.write(']');
+    }
+
+    static void writeString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    private static Map<String, String> readBody(HttpExchange exchange) throws IOException {
+        byte[] bytes = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+        if (bytes.length > MAX_BODY) throw new IllegalArgumentException("request body is too large");
+        return parseObject(new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    //тело запроса - плоский JSON-объект со строками, числами и true/false, вложенные значения API не нужны
+    static Map<String, String> parseObject(String json) {
+        HashMap<String, String> result = new HashMap<>();
+        int[] position = { skipSpaces(json, 0) };
+        expect(json, position, '{');
+        if (peek(json, position) == '}') {
+            position[0]++;
+            return result;
+        }
+        while (true) {
+            String key = readJsonString(json, position);
+            expect(json, position, ':');
+            String value = peek(json, position) == '"' ? readJsonString(json, position) : readJsonLiteral(json, position);
+            result.put(key, value);
+            char next = peek(json, position);
+            position[0]++;
+            if (next == '}') break;
+            if (next != ',') throw new IllegalArgumentException("bad JSON: expected , or } at " + (position[0] - 1));
+        }
+        if (skipSpaces(json, position[0]) != json.length()) throw new IllegalArgumentException("bad JSON: text after the object");
+        return result;
+    }
+
+    private static String readJsonString(String json, int[] position) {
+        expect(json, position, '"');
+        StringBuilder value = new StringBuilder();
+        int i = position[0];
+        while (i < json.length() && json.charAt(i) != '"') {
+            char c = json.charAt(i++);
+            if (c == '\\' && i < json.length()) {
+                char escaped = json.charAt(i++);
+                switch (escaped) {
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (i + 4 > json.length()) throw new IllegalArgumentException("bad JSON: broken \\u escape");
+                        try {
+                            value.append((char) Integer.parseInt(json.substring(i, i + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("bad JSON: broken \\u escape");
+                        }
+                        i += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        if (i >= json.length()) throw new IllegalArgumentException("bad JSON: unterminated string");
+        position[0] = i + 1;
+        return value.toString();
+    }
+
+    //число или true/false - значение остается текстом, его разбирает тот, кому оно нужно
+    private static String readJsonLiteral(String json, int[] position) {
+        int start = skipSpaces(json, position[0]);
+        int end = start;
+        while (end < json.length() && ("+-.0123456789".indexOf(json.charAt(end)) >= 0 || Character.isLetter(json.charAt(end)))) {
+            end++;
+        }
+        if (end == start) throw new IllegalArgumentException("bad JSON: expected a string, a number or true/false at " + start);
+        position[0] = end;
+        return json.substring(start, end);
+    }
+
+    private static void expect(String json, int[] position, char expected) {
+        if (peek(json, position) != expected) {
+            throw new IllegalArgumentException("bad JSON: expected " + expected + " at " + position[0]);
+        }
+        position[0]++;
+    }
+
+    //пропускает пробелы и возвращает следующий символ (0 если текст кончился)
+    private static char peek(String json, int[] position) {
+        position[0] = skipSpaces(json, position[0]);
+        return position[0] < json.length() ? json.charAt(position[0]) : 0;
+    }
+
+    private static int skipSpaces(String json, int from) {
+        while (from < json.length() && Character.isWhitespace(json.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        HashMap<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) return query;
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals == -1 ? pair : pair.substring(0, equals);
+            String value = equals == -1 ? "" : pair.substring(equals + 1);
+            query.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static String requireText(Map<String, String> body, String field, int maxLength) {
+        String text = body.get(field);
+        if (text == null) throw new IllegalArgumentException("missing field: " + field);
+        text = text.trim();
+        String error = ToDo.checkText(text, maxLength);
+        if (error != null) throw new IllegalArgumentException(field + ": " + error);
+        return text;
+    }
+
+    private static int parseNumber(String text) {
+        try {
+            int number = Integer.parseInt(text == null ? "" : text.trim());
+            if (number < 1) throw new IllegalArgumentException("numbers start from 1, got: " + text);
+            return number;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("enter a NUMBER please, got: " + text);
+        }
+    }
+
+    //{n} - позиция, id:12 (или закодированное %2312) - стабильный id задачи
+    private BaseTask taskAt(String ref) {
+        long id = ToDo.parseTaskId(ref);
+        if (id == 0) return list.get(parseNumber(ref) - 1);
+        BaseTask task = list.getById(id);
+        if (task == null) throw new NoSuchElementException("no task with id " + id + " in the list");
+        return task;
+    }
+
+    //правка задачи по ссылке: для id позиция находится под той же блокировкой, что и правка (TaskList.updateById),
+    //так что вставка, перенос или удаление от другого клиента в это время не подсунут запросу чужую задачу
+    private <T> T atTask(String ref, IntFunction<T> change) {
+        long id = ToDo.parseTaskId(ref);
+        if (id == 0) return change.apply(parseNumber(ref) - 1);
+        return list.updateById(id, change);
+    }
+
+    //путь к подзадаче вида 1.2.3 (номера с 1) -> позиции с нуля
+    private static int[] parsePath(String text) {
+        String[] parts = text.split("\\.");
+        int[] path = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            path[i] = parseNumber(parts[i]) - 1;
+        }
+        return path;
+    }
+
+    private static int parseDepth(String text) {
+        if (text.equals("all")) return Integer.MAX_VALUE;
+        try {
+            int depth = Integer.parseInt(text.trim());
+            if (depth < 0) throw new IllegalArgumentException("depth must be 0 or more, got: " + text);
+            return depth;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("depth must be a number or all, got: " + text);
+        }
+    }
+
+    private static long parseId(String text) {
+        try {
+            long id = Long.parseLong(text.trim());
+            if (id < 1) throw new IllegalArgumentException("ids start from 1, got: " + text);
+            return id;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("enter an id NUMBER please, got: " + text);
+        }
+    }
+
+    private static long parseSequence(String text) {
+        try {
+            long sequence = Long.parseLong(text.trim());
+            if (sequence < 0) throw new IllegalArgumentException("reminder numbers start from 1, got: " + text);
+            return sequence;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("enter a reminder NUMBER please, got: " + text);
+        }
+    }
+
+    private static TaskSorter.Order parseOrder(String text) {
+        try {
+            return TaskSorter.Order.valueOf(text.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown order: " + text + " (priority, date, deadline or description)");
+        }
+    }
+}
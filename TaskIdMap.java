@@ -0,0 +1,136 @@
+import java.util.function.IntFunction;
+
+//id задачи -> задача (или другое значение по задаче, например напоминание) без упаковки ключей в Long:
+//ключи и значения лежат в параллельных массивах, открытая адресация с линейным пробированием; удаление
+//сдвигает следующие записи назад вместо надгробий, так что поиск не замедляется от долгой смеси добавлений и удалений
+//задачи из снимка, которые еще не созданы, хранятся номером строки и достаются через rowLoader
+class TaskIdMap<T> {
+    private static final long EMPTY = 0; //id начинаются с 1
+    private static final int NO_ROW = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private final IntFunction<T> rowLoader; //null - строк снимка в таблице не бывает
+    private long[] keys = new long[MIN_CAPACITY];
+    private Object[] values = new Object[MIN_CAPACITY];
+    private int[] rows = new int[MIN_CAPACITY];
+    private int size;
+
+    TaskIdMap() {
+        this(null);
+    }
+
+    TaskIdMap(IntFunction<T> rowLoader) {
+        this.rowLoader = rowLoader;
+    }
+
+    public int size() { return size; }
+
+    //null если задачи с таким id нет
+    //писатель один, а читать можно и во время записи (TaskList потом проверяет штамп): массивы берутся
+    //один раз, а пробирование ограничено длиной таблицы, так что чтение не зациклится, а просто промахнется
+    @SuppressWarnings("unchecked") //в values кладутся только T
+    public T get(long id) {
+        long[] keys = this.keys;
+        Object[] values = this.values;
+        int[] rows = this.rows;
+        int mask = keys.length - 1;
+        for (int slot = slot(id, mask), probes = 0; probes <= mask; slot = (slot + 1) & mask, probes++) {
+            long key = keys[slot];
+            if (key == EMPTY) return null;
+            if (key == id) {
+                Object value = values[slot];
+                return value != null ? (T) value : rowLoader.apply(rows[slot]);
+            }
+        }
+        return null;
+    }
+
+    public void put(long id, T value) { put(id, value, NO_ROW); }
+
+    //перед загрузкой большого списка: таблица сразу нужного размера, без промежуточных перестроений
+    public void ensureCapacity(int count) {
+        int capacity = keys.length;
+        while ((count + 1) * 4L > capacity * 3L) {
+            capacity *= 2;
+        }
+        if (capacity != keys.length) resize(capacity);
+    }
+
+    public void putRow(long id, int row) { put(id, null, row); }
+
+    //удаленное значение; null если id не было (или это еще не созданная задача из снимка)
+    @SuppressWarnings("unchecked") //в values кладутся только T
+    public T remove(long id) {
+        int mask = keys.length - 1;
+        for (int slot = slot(id, mask); keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (keys[slot] == id) {
+                Object value = values[slot];
+                deleteSlot(slot);
+                size--;
+                return (T) value;
+            }
+        }
+        return null;
+    }
+
+    private void put(long id, Object value, int row) {
+        if (id == EMPTY) throw new IllegalArgumentException("task has no id");
+        if ((size + 1) * 4L > keys.length * 3L) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int slot = slot(id, mask);
+        while (keys[slot] != EMPTY && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == EMPTY) size++;
+        //значения пишутся раньше ключа: читатель, нашедший ключ, найдет и значение
+        values[slot] = value;
+        rows[slot] = row;
+        keys[slot] = id;
+    }
+
+    //следующие записи цепочки, чья "родная" ячейка не между дыркой и ними, сдвигаются в дырку
+    private void deleteSlot(int hole) {
+        int mask = keys.length - 1;
+        for (int next = (hole + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slot(keys[next], mask);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                values[hole] = values[next];
+                rows[hole] = rows[next];
+                keys[hole] = keys[next];
+                hole = next;
+            }
+        }
+        keys[hole] = EMPTY;
+        values[hole] = null;
+        rows[hole] = NO_ROW;
+    }
+
+    //новая таблица заполняется целиком и только потом подменяет старую
+    private void resize(int capacity) {
+        long[] newKeys = new long[capacity];
+        Object[] newValues = new Object[capacity];
+        int[] newRows = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == EMPTY) continue;
+            int slot = slot(keys[i], mask);
+            while (newKeys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            newKeys[slot] = keys[i];
+            newValues[slot] = values[i];
+            newRows[slot] = rows[i];
+        }
+        values = newValues;
+        rows = newRows;
+        keys = newKeys;
+    }
+
+    //id идут подряд, поэтому их перемешиваем (умножение Фибоначчи), иначе соседние id легли бы цепочкой
+    private static int slot(long id, int mask) {
+        long mixed = id * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+//журнал изменений: каждая операция пишется в конец файла отдельной бинарной записью
+//формат записи: [int длина тела][int crc32 тела][тело: byte операция + аргументы]
+class TaskJournal implements AutoCloseable {
+    static final byte CREATE = 1;
+    static final byte EDIT = 2;
+    static final byte DEADLINE = 4;
+    static final byte MOVE = 7;
+    static final byte MOVE_ALL = 8;
+    //корзина по id: удаление помнит свое время (от него считается срок хранения), восстановление - по id записи
+    static final byte DELETE_AT = 11;
+    static final byte RESTORE_TASK_BY_ID = 13;
+    static final byte RESTORE_SUBTASK_BY_ID = 14;
+    //подзадачи любой глубины: узел задается номером задачи и путем позиций под ней ([int длина][int...])
+    static final byte ADD_SUBTASK_AT = 15;
+    static final byte DELETE_SUBTASK_PATH = 16;
+    static final byte DEADLINE_AT = 17;
+    static final byte DONE = 18;
+    //импорт: одна запись на задачу из файла со всем ее деревом, см. TaskList.importTasks
+    static final byte IMPORT = 19;
+    //восстановление подзадачи на ее прежнее место (отмена удаления): id записи корзины, позиция
+    static final byte RESTORE_SUBTASK_AT = 20;
+    //удаление подзадачи под заданным id записи корзины (отмена восстановления): позиция, путь, время, id
+    static final byte DELETE_SUBTASK_AS = 21;
+
+    private static final int MAGIC = 0x54444a31; //"TDJ1"
+    private static final int HEADER_SIZE = 12; //magic + поколение снимка
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final long GROUP_COMMIT_MILLIS = 20;
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private final FileChannel channel;
+    private final boolean syncEachRecord;
+    private final CRC32 crc = new CRC32();
+    private final Thread flusher;
+    //монитор журнала защищает только буфер записей: запись в файл и fsync идут под flushLock и без него,
+    //так что правки списка не ждут диска; порядок записей в файле задает порядок захвата flushLock.
+    //Порядок замков один: сначала flushLock, потом монитор - под монитором flushLock не берется никогда
+    final Object flushLock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocateDirect(FLUSH_THRESHOLD * 2);
+    private ByteBuffer spare; //второй буфер: пока один пишется в файл, записи копятся в другом (под flushLock)
+    private int committed; //конец последней законченной записи в pending
+    private int recordStart = -1;
+    private long appended; //байт законченных записей с открытия журнала
+    private long written; //из них отданы в файл (под flushLock)
+    private long durable; //из них уже на диске (под flushLock)
+    private long generation;
+    private long recordCount;
+    private volatile boolean closed;
+
+    //syncEachRecord: fsync после каждой записи; иначе записи копятся и сбрасываются
+    //одним fsync раз в GROUP_COMMIT_MILLIS (при падении теряются только последние миллисекунды)
+    private TaskJournal(FileChannel channel, long generation, boolean syncEachRecord) {
+        this.channel = channel;
+        this.generation = generation;
+        this.syncEachRecord = syncEachRecord;
+        if (syncEachRecord) {
+            flusher = null;
+        } else {
+            flusher = new Thread(this::groupCommitLoop, "todo-journal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    //открывает журнал и проигрывает записи, сделанные после снимка с поколением snapshotGeneration
+    static TaskJournal open(Path file, long snapshotGeneration, boolean syncEachRecord,
+                            Consumer<ByteBuffer> replayer) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long validEnd = 0;
+            long replayed = 0;
+            if (channel.size() >= HEADER_SIZE) {
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                //журнал старше снимка уже весь вошел в снимок - его записи пропускаем
+                if (data.getInt() == MAGIC && data.getLong() >= snapshotGeneration) {
+                    validEnd = HEADER_SIZE;
+                    CRC32 check = new CRC32();
+                    while (data.remaining() >= RECORD_HEADER_SIZE) {
+                        int length = data.getInt();
+                        int checksum = data.getInt();
+                        if (length <= 0 || length > data.remaining()) break;
+
+                        ByteBuffer body = data.slice().limit(length);
+                        check.reset();
+                        check.update(body.duplicate());
+                        if ((int) check.getValue() != checksum) break; //недописанный хвост после падения
+
+                        replayer.accept(body);
+                        data.position(data.position() + length);
+                        validEnd = data.position();
+                        replayed++;
+                    }
+                }
+            }
+
+            TaskJournal journal = new TaskJournal(channel, snapshotGeneration, syncEachRecord);
+            if (validEnd == 0) {
+                journal.reset(snapshotGeneration);
+            } else {
+                channel.truncate(validEnd);
+                channel.position(validEnd);
+                journal.recordCount = replayed;
+            }
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    long getGeneration() { return generation; }
+    synchronized long getRecordCount() { return recordCount; }
+
+    synchronized TaskJournal begin(byte operation) {
+        recordStart = pending.position();
+        ensureCapacity(RECORD_HEADER_SIZE + 1);
+        pending.position(recordStart + RECORD_HEADER_SIZE);
+        pending.put(operation);
+        return this;
+    }
+
+    synchronized TaskJournal putInt(int value) {
+        ensureCapacity(4);
+        pending.putInt(value);
+        return this;
+    }
+
+    synchronized TaskJournal putLong(long value) {
+        ensureCapacity(8);
+        pending.putLong(value);
+        return this;
+    }
+
+    synchronized TaskJournal putPath(int[] path) {
+        ensureCapacity(4 + 4 * path.length);
+        pending.putInt(path.length);
+        for (int position : path) {
+            pending.putInt(position);
+        }
+        return this;
+    }
+
+    synchronized TaskJournal putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(4 + bytes.length);
+        pending.putInt(bytes.length);
+        pending.put(bytes);
+        return this;
+    }
+
+    //только закрывает запись в буфере; в файл ее отправляет append, уже отпустив монитор
+    synchronized void commit() {
+        int end = pending.position();
+        int length = end - recordStart - RECORD_HEADER_SIZE;
+
+        crc.reset();
+        crc.update(pending.duplicate().position(recordStart + RECORD_HEADER_SIZE).limit(end));
+        pending.putInt(recordStart, length);
+        pending.putInt(recordStart + 4, (int) crc.getValue());
+
+        appended += end - committed;
+        committed = end;
+        recordStart = -1;
+        recordCount++;
+    }
+
+    //записи (begin ... commit) собираются целиком под монитором, а в файл уходят после него: поток сброса
+    //держит flushLock и ждет монитор, так что flushLock под монитором дал бы взаимную блокировку
+    void append(Consumer<TaskJournal> records) {
+        boolean full;
+        synchronized (this) {
+            records.accept(this);
+            full = committed >= FLUSH_THRESHOLD;
+        }
+
+        if (syncEachRecord) {
+            flush();
+        } else if (full) {
+            synchronized (flushLock) {
+                writeCommitted();
+            }
+        }
+    }
+
+    //ждет, пока все законченные к этому моменту записи окажутся на диске; если их уже сбросил
+    //другой поток (своим fsync), возвращается сразу - так fsync одного потока покрывает записи соседей
+    void flush() {
+        long target;
+        synchronized (this) {
+            target = appended;
+        }
+        synchronized (flushLock) {
+            if (durable >= target || !channel.isOpen()) return;
+            writeCommitted();
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            durable = written;
+        }
+    }
+
+    //после снимка старые записи не нужны: файл обрезается и получает новое поколение
+    void reset(long newGeneration) throws IOException {
+        synchronized (flushLock) {
+            synchronized (this) {
+                pending.clear();
+                committed = 0;
+                recordStart = -1;
+                recordCount = 0;
+                generation = newGeneration;
+                written = durable = appended;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putLong(newGeneration).flip();
+            channel.truncate(0);
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+    }
+
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        if (flusher != null) {
+            flusher.interrupt();
+        }
+        flush();
+        synchronized (flushLock) {
+            channel.close();
+        }
+    }
+
+    //под flushLock: законченные записи забираются вместе с буфером (незаконченная переезжает в начало
+    //запасного), а пишутся в файл уже после того, как монитор отпущен
+    private void writeCommitted() {
+        ByteBuffer ready;
+        synchronized (this) {
+            if (committed == 0) return;
+            ready = pending;
+            if (spare == null || spare.capacity() < ready.capacity()) {
+                spare = ByteBuffer.allocateDirect(ready.capacity());
+            }
+            spare.clear();
+            spare.put(ready.duplicate().position(committed).limit(ready.position()));
+            if (recordStart >= 0) {
+                recordStart -= committed;
+            }
+            ready.limit(committed).position(0);
+            pending = spare;
+            spare = null;
+            committed = 0;
+            written = appended;
+        }
+
+        try {
+            while (ready.hasRemaining()) {
+                channel.write(ready);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            spare = ready.clear();
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (pending.remaining() >= bytes) return;
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(pending.capacity() * 2, pending.position() + bytes));
+        pending.flip();
+        bigger.put(pending);
+        pending = bigger;
+    }
+
+    private void groupCommitLoop() {
+        while (true) {
+            try {
+                Thread.sleep(GROUP_COMMIT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (closed) return;
+            flush();
+        }
+    }
+
+    static int[] getPath(ByteBuffer in) {
+        int[] path = new int[in.getInt()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = in.getInt();
+        }
+        return path;
+    }
+
+    static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
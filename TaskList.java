@@ -0,0 +1,1179 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+//ядро списка: задачи, архив, индексы и хранилище на диске; меню, пакетный режим и другие
+//клиенты работают только через него и могут делать это из разных потоков одновременно
+//
+//добавление, удаление, перестановка и восстановление меняют структуру и идут под блокировкой записи;
+//правка одной задачи (текст, дедлайн, подзадачи) берет блокировку чтения и замок полосы этой задачи,
+//так что правки разных задач друг друга не ждут; чтение вовсе не берет блокировку, а по штампу
+//проверяет, что структуру за это время не меняли, и только если меняли - читает еще раз под блокировкой
+class TaskList implements AutoCloseable {
+    static final int FIRST_PRIORITY = 1;
+    static final int[] NO_PATH = {}; //путь к самой задаче, а не к подзадаче
+    private static final int SCAN_CHUNK = 16_384; //меньше этого делить обход запроса дороже, чем пройти подряд
+
+    private static final String SNAPSHOT_FILE = "todo.snapshot";
+    private static final String JOURNAL_FILE = "todo.journal";
+    private static final long COMPACT_EVERY_RECORDS = 10_000;
+    private static final int COMPACT_ON_CLOSE_FRACTION = 4; //при выходе снимок пишется, если журнал длиннее четверти порога
+    private static final int STRIPES = 64; //степень двойки
+
+    //корзина: сколько удалений помнить, как долго и сколько (примерно) держать в куче - остальное уходит в файл
+    private static final String DELETED_TASKS_FILE = "deleted-tasks.spill";
+    private static final String DELETED_SUBTASKS_FILE = "deleted-subtasks.spill";
+    private static final int TRASH_MAX_ENTRIES = 100_000;
+    private static final long TRASH_MAX_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+    private static final long TRASH_HEAP_BYTES = 16L << 20;
+    //undo: сколько шагов помнить и сколько держать в куче - более старые уходят в файл рядом с журналом
+    private static final int HISTORY_MAX_STEPS = 100_000;
+    private static final long HISTORY_HEAP_BYTES = 4L << 20;
+
+    //подзадача в корзине (вместе со своим поддеревом) помнит id задачи списка и id узла, под которым была,
+    //а не позиции - позиции к моменту восстановления могли смениться
+    static class SubtaskArchive {
+        final long rootId;
+        final long parentId; //равен rootId, если подзадача была прямо у задачи списка
+        final Task subtask;
+        final Task parent; //тот же узел, пока корзина не читалась с диска - избавляет от поиска по id
+
+        SubtaskArchive(long rootId, long parentId, Task subtask, Task parent) {
+            this.rootId = rootId;
+            this.parentId = parentId;
+            this.subtask = subtask;
+            this.parent = parent;
+        }
+    }
+
+    private static final TrashStore.Codec<BaseTask> TASK_CODEC = new TrashStore.Codec<>() {
+        public void write(DataOutputStream out, BaseTask task) throws IOException {
+            out.writeLong(task.getId());
+            out.writeUTF(task.description);
+            out.writeLong(task.getCreatedMillis());
+            out.writeInt(task.getPriority());
+            out.writeBoolean(task instanceof Task);
+            if (task instanceof Task) {
+                writeNode(out, (Task) task);
+            }
+        }
+
+        public BaseTask read(DataInputStream in) throws IOException {
+            long id = in.readLong();
+            String description = in.readUTF();
+            long createdMillis = in.readLong();
+            int priority = in.readInt();
+            BaseTask task;
+            if (in.readBoolean()) {
+                Task concreteTask = new Task(description, priority, createdMillis);
+                readNode(in, concreteTask);
+                task = concreteTask;
+            } else {
+                task = new BaseTask(description, priority, createdMillis);
+            }
+            task.id = id;
+            return task;
+        }
+
+        public long bytes(BaseTask task) {
+            long bytes = 64 + 2L * task.description.length();
+            return task instanceof Task ? bytes + nodeBytes((Task) task) : bytes;
+        }
+    };
+
+    private static final TrashStore.Codec<SubtaskArchive> SUBTASK_CODEC = new TrashStore.Codec<>() {
+        public void write(DataOutputStream out, SubtaskArchive archive) throws IOException {
+            out.writeLong(archive.rootId);
+            out.writeLong(archive.parentId);
+            writeSubtask(out, archive.subtask);
+        }
+
+        public SubtaskArchive read(DataInputStream in) throws IOException {
+            long rootId = in.readLong();
+            long parentId = in.readLong();
+            return new SubtaskArchive(rootId, parentId, readSubtask(in), null);
+        }
+
+        public long bytes(SubtaskArchive archive) { return 48 + 64 + 2L * archive.subtask.description.length() + nodeBytes(archive.subtask); }
+    };
+
+    //дедлайн, отметка и все поддерево узла - в порядке обхода сверху вниз
+    private static void writeNode(DataOutputStream out, Task task) throws IOException {
+        out.writeUTF(task.getDeadline());
+        out.writeLong(task.getDeadlineMillis());
+        out.writeBoolean(task.isDone());
+        List<Task> subtasks = task.getSubtasks();
+        out.writeInt(subtasks.size());
+        for (Task subtask : subtasks) {
+            writeSubtask(out, subtask);
+        }
+    }
+
+    private static void writeSubtask(DataOutputStream out, Task subtask) throws IOException {
+        out.writeLong(subtask.getId());
+        out.writeUTF(subtask.description);
+        out.writeLong(subtask.getCreatedMillis());
+        writeNode(out, subtask);
+    }
+
+    private static void readNode(DataInputStream in, Task task) throws IOException {
+        task.setDeadline(in.readUTF(), in.readLong());
+        task.setDone(in.readBoolean());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            task.addSubtask(readSubtask(in));
+        }
+    }
+
+    private static Task readSubtask(DataInputStream in) throws IOException {
+        long id = in.readLong();
+        Task subtask = new Task(in.readUTF(), 0, in.readLong());
+        subtask.id = id;
+        readNode(in, subtask);
+        return subtask;
+    }
+
+    //заголовок объекта и поля + символы строк; у каждой подзадачи еще свой объект и строка
+    private static long nodeBytes(Task task) {
+        long bytes = 2L * task.getDeadline().length();
+        for (Task subtask : task.getSubtasks()) {
+            bytes += 104 + 2L * subtask.description.length() + nodeBytes(subtask);
+        }
+        return bytes;
+    }
+
+    private final TaskStore tasks = new TreapTaskStore();
+    private final TaskIdMap<BaseTask> ids = new TaskIdMap<>(tasks::getLoaded); //только задачи списка, без корзины
+    private final TrashStore<BaseTask> deletedTasks =
+            new TrashStore<>(TASK_CODEC, TRASH_MAX_ENTRIES, TRASH_MAX_AGE_MILLIS, TRASH_HEAP_BYTES);
+    private final TrashStore<SubtaskArchive> deletedSubtasks = //только под synchronized (deletedSubtasks)
+            new TrashStore<>(SUBTASK_CODEC, TRASH_MAX_ENTRIES, TRASH_MAX_AGE_MILLIS, TRASH_HEAP_BYTES);
+    //id задач, подзадач и записей корзины подзадач; выдается под блокировкой записи либо (новая или удаленная
+    //подзадача) под блокировкой чтения и монитором deletedSubtasks - так что два потока его одновременно не меняют
+    private long nextId = 1;
+    private TaskSnapshot lazySource; //снимок, из которого задачи списка читаются лениво (null, если его не было)
+    //ошибки, которые случаются после правки и к ней не относятся (не записался очередной снимок): правка уже
+    //в журнале, поэтому вызывающему они не бросаются, а уходят сюда; печатать их - дело приложения
+    private volatile Consumer<String> warnings = message -> { };
+    private final LongAdder subtaskCount = new LongAdder(); //подзадач любой глубины у задач списка (без корзины) - для метрик
+    private final TaskSorter sorter = new TaskSorter(tasks);
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private SearchIndex searchIndex; //строится при первом поиске, до этого правки его не трогают
+    private volatile DeadlineReminders reminders; //строятся при запуске напоминаний, до этого правки их не трогают
+
+    private final StampedLock lock = new StampedLock();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    //поток, который держит блокировку записи: отмена выполняет обратные правки обычными методами списка,
+    //и под ее блокировкой они идут сразу, без своей
+    private volatile Thread writer;
+    private final UndoHistory history = new UndoHistory(HISTORY_MAX_STEPS, HISTORY_HEAP_BYTES);
+    private ArrayList<byte[]> inverses; //обратные правки, сделанные по ходу отмены или повтора - под блокировкой записи
+
+    private Path dataDir;
+    private volatile TaskJournal journal;
+    private boolean replaying;
+
+    TaskList() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    //чтение
+
+    public int size() { return read(tasks::size); }
+    public boolean isEmpty() { return size() == 0; }
+    public BaseTask get(int index) { return read(() -> tasks.get(index)); }
+
+    //по стабильному id, O(1): null если такой задачи в списке нет (в том числе если она в корзине)
+    public BaseTask getById(long id) { return read(() -> ids.get(id)); }
+
+    //текущая позиция задачи с таким id, -1 если ее в списке нет
+    public int indexOf(long id) {
+        return read(() -> {
+            BaseTask task = ids.get(id);
+            return task == null ? -1 : tasks.indexOf(task);
+        });
+    }
+
+    //null если задача не умеет хранить дедлайн и подзадачи
+    public Task getTask(int index) {
+        BaseTask task = get(index);
+        return (task instanceof Task) ? (Task) task : null;
+    }
+
+    //узел дерева задачи по пути из позиций с нуля (пустой путь - сама задача);
+    //IndexOutOfBoundsException если такого узла нет
+    public Task getSubtask(int index, int[] path) {
+        return read(() -> asTask(tasks.get(index), index).getSubtask(path));
+    }
+
+    public ArrayList<BaseTask> page(TaskSorter.Order order, int from, int count) {
+        //отсортированные виды строятся и правятся под своим замком - их читаем под блокировкой
+        if (order != TaskSorter.Order.PRIORITY) return readLocked(() -> sorter.page(order, from, count));
+        return read(() -> sorter.page(order, from, count));
+    }
+
+    public int size(TaskSorter.Order order) { return readLocked(() -> sorter.size(order)); }
+    public ArrayList<BaseTask> dueBefore(long millis) { return readLocked(() -> sorter.dueBefore(millis)); }
+    public ArrayList<BaseTask> nextDue(long fromMillis, int limit) { return readLocked(() -> sorter.nextDue(fromMillis, limit)); }
+
+    //напоминания о дедлайнах (см. DeadlineReminders), вызывается один раз; правки ставят и снимают напоминания
+    //сразу, а уже существующие задачи раскладываются по колесу в потоке напоминаний под блокировкой записи -
+    //запуск этого не ждет, и ни одна правка не проскочит между обходом и колесом
+    public void startReminders(long leadMillis, DeadlineReminders.Sink sink) {
+        DeadlineReminders started = new DeadlineReminders(leadMillis, System.currentTimeMillis(), this::getById);
+        reminders = started;
+        started.start(sink, () -> write(() -> {
+            for (BaseTask task : tasks) {
+                long deadline = reminderDeadline(task);
+                if (deadline != Deadlines.NONE) started.schedule(task.getId(), deadline);
+            }
+            return null;
+        }));
+    }
+
+    public int getReminderCount() {
+        DeadlineReminders current = reminders;
+        return current == null ? 0 : current.size();
+    }
+
+    //корзина читается только под блокировкой: часть записей лежит в файле, и читать его наугад нельзя
+    public int getDeletedCount() { return readLocked(deletedTasks::size); }
+
+    //от старых удалений к новым
+    public ArrayList<TrashStore.Entry<BaseTask>> deletedPage(int from, int count) {
+        return readLocked(() -> deletedTasks.page(from, count));
+    }
+
+    public ArrayList<TrashStore.Entry<SubtaskArchive>> deletedSubtaskPage(int from, int count) {
+        synchronized (deletedSubtasks) {
+            return deletedSubtasks.page(from, count);
+        }
+    }
+
+    public int getDeletedSubtaskCount() {
+        synchronized (deletedSubtasks) {
+            return deletedSubtasks.size();
+        }
+    }
+
+    //всего подзадач любой глубины у задач списка, без блокировки: пока идут правки, значение приблизительное
+    public long getSubtaskCount() { return subtaskCount.sum(); }
+
+    //null если задачи, к которой относилась подзадача, в списке уже нет
+    public Task parentOf(SubtaskArchive archive) { return read(() -> findParent(archive)); }
+
+    //совпадения в порядке списка, подзадачи - после своей задачи
+    public ArrayList<SearchHit> search(String query) {
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        return readLocked(() -> {
+            ArrayList<SearchHit> hits = findHits(query);
+            //индекс не знает позиций, а под блокировкой они не поменяются
+            hits.sort((h1, h2) -> h1.task.getPriority() != h2.task.getPriority()
+                    ? Integer.compare(h1.task.getPriority(), h2.task.getPriority())
+                    : Integer.compare(h1.order, h2.order));
+            event.end();
+            if (event.shouldCommit()) {
+                event.query = query;
+                event.hits = hits.size();
+                event.tasks = tasks.size();
+                event.commit();
+            }
+            return hits;
+        });
+    }
+
+    private ArrayList<SearchHit> findHits(String query) {
+        indexLock.readLock().lock();
+        try {
+            if (searchIndex != null) return searchIndex.find(query);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+
+        indexLock.writeLock().lock();
+        try {
+            if (searchIndex == null) {
+                SearchIndex index = new SearchIndex();
+                for (BaseTask task : tasks) {
+                    index.put(task);
+                }
+                searchIndex = index;
+            }
+            return searchIndex.find(query);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    public ArrayList<BaseTask> query(TaskFilter filter) { return query(0, Integer.MAX_VALUE, filter); }
+
+    //задачи позиций from..to-1 (с нуля), для которых filter истинен, в порядке приоритета;
+    //большой список делится на части по SCAN_CHUNK задач и проходится параллельно в общем пуле fork-join,
+    //а результаты частей склеиваются по порядку. Список на это время блокируется от изменений, как при поиске
+    public ArrayList<BaseTask> query(int from, int to, TaskFilter filter) {
+        return readLocked(() -> {
+            int end = Math.min(to, tasks.size());
+            if (from >= end) return new ArrayList<>();
+            Scan scan = new Scan(tasks.spliterator(Math.max(0, from), end), filter);
+            return end - from <= SCAN_CHUNK ? scan.compute() : ForkJoinPool.commonPool().invoke(scan);
+        });
+    }
+
+    private static class Scan extends RecursiveTask<ArrayList<BaseTask>> {
+        private static final long serialVersionUID = 1L;
+
+        private final TaskStore.Range range;
+        private final TaskFilter filter;
+
+        Scan(TaskStore.Range range, TaskFilter filter) {
+            this.range = range;
+            this.filter = filter;
+        }
+
+        protected ArrayList<BaseTask> compute() {
+            TaskStore.Range prefix = range.estimateSize() > SCAN_CHUNK ? range.trySplit() : null;
+            if (prefix != null) {
+                Scan left = new Scan(prefix, filter);
+                left.fork();
+                ArrayList<BaseTask> right = compute(); //range теперь - вторая половина
+                ArrayList<BaseTask> found = left.join();
+                found.addAll(right);
+                return found;
+            }
+
+            ArrayList<BaseTask> found = new ArrayList<>();
+            int[] priority = { range.position() + FIRST_PRIORITY };
+            range.forEachRemaining(task -> {
+                if (filter.test(task, priority[0]++)) found.add(task);
+            });
+            return found;
+        }
+    }
+
+    //чтение без блокировки: если за это время структуру меняли (или чтение споткнулось о наполовину
+    //перестроенное дерево), повторяем под блокировкой - настоящая ошибка, если она есть, вылетит там
+    private <T> T read(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = reader.get();
+                if (lock.validate(stamp)) return result;
+            } catch (RuntimeException e) {
+                //повторим под блокировкой
+            }
+        }
+        return readLocked(reader);
+    }
+
+    private <T> T readLocked(Supplier<T> reader) {
+        if (writer == Thread.currentThread()) return reader.get();
+        long stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    //изменения: их вызывают и клиенты, и проигрывание журнала
+
+    //правка задачи по стабильному id: позиция находится под блокировкой записи, и под ней же change зовет
+    //обычные методы списка (они выполняются сразу, без своей блокировки) - так что вставка, перенос или
+    //удаление из другого потока между поиском и правкой не подсунут ей чужую задачу.
+    //NoSuchElementException, если задачи с таким id в списке нет
+    public <T> T updateById(long id, IntFunction<T> change) {
+        return write(() -> {
+            BaseTask task = ids.get(id);
+            if (task == null) throw new NoSuchElementException("no task with id " + id + " in the list");
+            return change.apply(tasks.indexOf(task));
+        });
+    }
+
+    public Task insertTask(String description, long createdMillis) {
+        return write(() -> {
+            //текущее кол-во задач + 1 == автоматически в конец списка по приоритету
+            Task newTask = new Task(description, tasks.size() + FIRST_PRIORITY, createdMillis);
+            newTask.id = nextId++;
+            tasks.add(newTask);
+            ids.put(newTask.getId(), newTask);
+            indexTask(newTask);
+            sorter.added(newTask);
+            log(out -> out.begin(TaskJournal.CREATE).putString(description).putLong(createdMillis).commit());
+            remember(new UndoHistory.Delta(UndoHistory.DELETE_TASK).putInt(tasks.size() - 1));
+            return newTask;
+        });
+    }
+
+    public void editDescription(int index, String description) {
+        editTask(index, task -> {
+            String before = task.description;
+            sorter.update(task, () -> task.setDescription(description));
+            indexTask(task);
+            log(out -> out.begin(TaskJournal.EDIT).putInt(index).putString(description).commit());
+            remember(new UndoHistory.Delta(UndoHistory.EDIT).putInt(index).putString(before));
+        });
+    }
+
+    public BaseTask removeTask(int index) {
+        return removeTask(index, System.currentTimeMillis());
+    }
+
+    //время удаления пишется в журнал: по нему корзина забывает старые записи, и при проигрывании - те же самые
+    private BaseTask removeTask(int index, long deletedAt) {
+        return write(() -> {
+            BaseTask removedTask = tasks.remove(index);
+            ids.remove(removedTask.getId());
+            deletedTasks.add(removedTask.getId(), removedTask, deletedAt);
+            subtaskCount.add(-subtreeSizeOf(removedTask));
+            unindexTask(removedTask);
+            sorter.removed(removedTask);
+            forgetReminder(removedTask);
+            log(out -> out.begin(TaskJournal.DELETE_AT).putInt(index).putLong(deletedAt).commit());
+            remember(new UndoHistory.Delta(UndoHistory.RESTORE_TASK).putLong(removedTask.getId()).putInt(index));
+            return removedTask;
+        });
+    }
+
+    //IllegalArgumentException если в корзине нет задачи с таким id (или ее уже забыли)
+    public BaseTask restoreArchivedTask(long id) {
+        return write(() -> {
+            BaseTask restoredTask = deletedTasks.remove(id);
+            if (restoredTask == null) throw new IllegalArgumentException("no deleted task with id " + id);
+            tasks.add(restoredTask);
+            ids.put(restoredTask.getId(), restoredTask);
+            subtaskCount.add(subtreeSizeOf(restoredTask));
+            indexTask(restoredTask);
+            sorter.added(restoredTask);
+            remind(restoredTask);
+            log(out -> out.begin(TaskJournal.RESTORE_TASK_BY_ID).putLong(id).commit());
+            remember(new UndoHistory.Delta(UndoHistory.DELETE_TASK).putInt(tasks.size() - 1));
+            return restoredTask;
+        });
+    }
+
+    public void setDeadline(int index, String deadline) {
+        setDeadline(index, NO_PATH, deadline);
+    }
+
+    //дедлайн задачи (пустой путь) или подзадачи любой глубины; в виде по дедлайнам - только задачи списка
+    public void setDeadline(int index, int[] path, String deadline) {
+        editTask(index, baseTask -> {
+            Task task = asTask(baseTask, index);
+            Task node = task.getSubtask(path);
+            String before = node.getDeadline();
+            if (path.length == 0) {
+                sorter.update(task, () -> task.setDeadline(deadline));
+                remind(task);
+            } else {
+                node.setDeadline(deadline);
+            }
+            indexTask(task);
+            if (path.length == 0) {
+                log(out -> out.begin(TaskJournal.DEADLINE).putInt(index).putString(deadline).commit());
+            } else {
+                log(out -> out.begin(TaskJournal.DEADLINE_AT).putInt(index).putPath(path).putString(deadline).commit());
+            }
+            remember(new UndoHistory.Delta(UndoHistory.DEADLINE).putInt(index).putPath(path).putString(before));
+        });
+    }
+
+    //отметка о выполнении задачи или подзадачи; итоги предков пересчитываются сразу
+    public void setDone(int index, int[] path, boolean done) {
+        editTask(index, baseTask -> {
+            Task node = asTask(baseTask, index).getSubtask(path);
+            boolean before = node.isDone();
+            node.setDone(done);
+            if (path.length == 0) remind(node);
+            log(out -> out.begin(TaskJournal.DONE).putInt(index).putPath(path).putInt(done ? 1 : 0).commit());
+            remember(new UndoHistory.Delta(UndoHistory.DONE).putInt(index).putPath(path).putInt(before ? 1 : 0));
+        });
+    }
+
+    public void appendSubtask(int index, String subtask) {
+        appendSubtask(index, NO_PATH, subtask);
+    }
+
+    //новая подзадача в конец подзадач узла path (пустой путь - сама задача)
+    public void appendSubtask(int index, int[] path, String subtask) {
+        appendSubtask(index, path, subtask, System.currentTimeMillis());
+    }
+
+    private void appendSubtask(int index, int[] path, String text, long createdMillis) {
+        if (text.trim().isEmpty()) return; //пустые подзадачи не добавлялись и раньше
+        editTask(index, baseTask -> {
+            Task task = asTask(baseTask, index);
+            Task parentNode = task.getSubtask(path);
+            Task subtask = new Task(text, 0, createdMillis);
+            //id выдается вместе с записью в журнал: при проигрывании подзадачи получат те же id в том же порядке
+            synchronized (deletedSubtasks) {
+                subtask.id = nextId++;
+                log(out -> out.begin(TaskJournal.ADD_SUBTASK_AT).putInt(index).putPath(path).putLong(createdMillis)
+                        .putString(text).commit());
+            }
+            parentNode.addSubtask(subtask);
+            subtaskCount.increment();
+            indexTask(task);
+            int[] added = Arrays.copyOf(path, path.length + 1);
+            added[path.length] = parentNode.getSubtasks().size() - 1;
+            remember(new UndoHistory.Delta(UndoHistory.DELETE_SUBTASK).putInt(index).putPath(added).putLong(0));
+        });
+    }
+
+    public void removeSubtask(int index, int subtaskIndex) {
+        removeSubtask(index, new int[] { subtaskIndex });
+    }
+
+    //подзадача по пути уходит в корзину вместе со своими подзадачами
+    public void removeSubtask(int index, int[] path) {
+        removeSubtask(index, path, System.currentTimeMillis());
+    }
+
+    private void removeSubtask(int index, int[] path, long deletedAt) {
+        removeSubtask(index, path, deletedAt, 0);
+    }
+
+    //archiveId != 0 - подзадача уходит в корзину под прежним id (отмена ее восстановления): на этот id
+    //ссылаются более старые шаги истории
+    private void removeSubtask(int index, int[] path, long deletedAt, long archiveId) {
+        if (path.length == 0) throw new IllegalArgumentException("a task is not a subtask - delete it as a task");
+        editTask(index, baseTask -> {
+            Task task = asTask(baseTask, index);
+            Task parentNode = task.getSubtask(Arrays.copyOf(path, path.length - 1));
+            Task subtask = parentNode.removeSubtask(path[path.length - 1]);
+            subtaskCount.add(-subtask.getSubtreeSize() - 1);
+            indexTask(task);
+            //id записи выдается здесь же, поэтому в журнал удаления попадают в том же порядке, в каком получали id
+            synchronized (deletedSubtasks) {
+                long entryId = archiveId != 0 ? archiveId : nextId++;
+                deletedSubtasks.add(entryId, new SubtaskArchive(task.getId(), parentNode.getId(), subtask, parentNode), deletedAt);
+                if (archiveId != 0) {
+                    log(out -> out.begin(TaskJournal.DELETE_SUBTASK_AS).putInt(index).putPath(path)
+                            .putLong(deletedAt).putLong(archiveId).commit());
+                } else {
+                    log(out -> out.begin(TaskJournal.DELETE_SUBTASK_PATH).putInt(index).putPath(path)
+                            .putLong(deletedAt).commit());
+                }
+                remember(new UndoHistory.Delta(UndoHistory.RESTORE_SUBTASK).putLong(entryId).putInt(path[path.length - 1]));
+            }
+        });
+    }
+
+    //возвращает задачу списка, в дерево которой вернулась подзадача;
+    //null если узла, под которым была подзадача, в списке нет - тогда запись остается в корзине
+    //и ее можно восстановить позже, когда вернут сам узел
+    public Task restoreArchivedSubtask(long id) {
+        return restoreArchivedSubtask(id, -1);
+    }
+
+    //position - место среди подзадач родителя (для отмены удаления), -1 - в конец
+    public Task restoreArchivedSubtask(long id, int position) {
+        return write(() -> {
+            //запись читается (из файла корзины - один раз) и уходит из корзины в одной критической секции
+            TrashStore.Entry<SubtaskArchive> entry;
+            Task parentNode;
+            synchronized (deletedSubtasks) {
+                entry = deletedSubtasks.get(id);
+                if (entry == null) throw new IllegalArgumentException("no deleted subtask with id " + id);
+                parentNode = findParent(entry.value);
+                if (parentNode == null) return null;
+                deletedSubtasks.discard(id);
+            }
+            Task subtask = entry.value.subtask;
+            if (position == -1) {
+                parentNode.addSubtask(subtask);
+            } else {
+                parentNode.insertSubtask(Math.min(position, parentNode.getSubtasks().size()), subtask);
+            }
+            subtaskCount.add(subtask.getSubtreeSize() + 1);
+            Task task = parentNode.getRoot();
+            indexTask(task);
+            if (position == -1) {
+                log(out -> out.begin(TaskJournal.RESTORE_SUBTASK_BY_ID).putLong(id).commit());
+            } else {
+                log(out -> out.begin(TaskJournal.RESTORE_SUBTASK_AT).putLong(id).putInt(position).commit());
+            }
+            remember(new UndoHistory.Delta(UndoHistory.DELETE_SUBTASK).putInt(tasks.indexOf(task)).putPath(pathOf(subtask))
+                    .putLong(id));
+            return task;
+        });
+    }
+
+    //ссылка на узел есть, пока запись не читалась с диска; без нее (или если задачу с тех пор удаляли
+    //и восстанавливали из файла корзины уже другим объектом) узел находится по id внутри задачи списка
+    private Task findParent(SubtaskArchive archive) {
+        Task parentNode = archive.parent;
+        if (parentNode != null && parentNode.getRoot().owner == tasks) return parentNode;
+        BaseTask root = ids.get(archive.rootId);
+        if (!(root instanceof Task)) return null;
+        return archive.parentId == archive.rootId ? (Task) root : ((Task) root).find(archive.parentId);
+    }
+
+    //задачи из файла (TaskTransfer) в конец списка под одной блокировкой; id узлам выдаются по порядку обхода дерева,
+    //так что проигрывание журнала дает те же id. Узел с deletedAt сверху уходит в корзину задач,
+    //а ниже - в корзину подзадач своего родителя
+    //импорт не отменяется: история до него забывается
+    public void importTasks(List<TaskTransfer.Node> imported) {
+        write(() -> {
+            if (!replaying) history.clear();
+            for (TaskTransfer.Node node : imported) {
+                importTask(node);
+                log(out -> putImported(out.begin(TaskJournal.IMPORT), node).commit());
+            }
+            return null;
+        });
+    }
+
+    private void importTask(TaskTransfer.Node node) {
+        ArrayList<SubtaskArchive> archived = new ArrayList<>();
+        ArrayList<Long> archivedAt = new ArrayList<>();
+        long rootId = nextId;
+        Task task = buildImported(node, tasks.size() + FIRST_PRIORITY, rootId, archived, archivedAt);
+        if (node.deletedAt != 0) {
+            deletedTasks.add(task.getId(), task, node.deletedAt);
+        } else {
+            tasks.add(task);
+            ids.put(task.getId(), task);
+            subtaskCount.add(subtreeSizeOf(task));
+            indexTask(task);
+            sorter.added(task);
+            remind(task);
+        }
+        synchronized (deletedSubtasks) {
+            for (int i = 0; i < archived.size(); i++) {
+                deletedSubtasks.add(nextId++, archived.get(i), archivedAt.get(i));
+            }
+        }
+    }
+
+    private Task buildImported(TaskTransfer.Node node, int priority, long rootId,
+                               ArrayList<SubtaskArchive> archived, ArrayList<Long> archivedAt) {
+        Task task = new Task(node.description, priority, node.createdMillis);
+        task.id = nextId++;
+        task.setDeadline(node.deadline, node.deadlineMillis);
+        ArrayList<Task> children = new ArrayList<>(node.subtasks.size());
+        for (TaskTransfer.Node child : node.subtasks) {
+            Task subtask = buildImported(child, 0, rootId, archived, archivedAt);
+            if (child.deletedAt != 0) {
+                archived.add(new SubtaskArchive(rootId, task.getId(), subtask, task));
+                archivedAt.add(child.deletedAt);
+            } else {
+                children.add(subtask);
+            }
+        }
+        task.attachSubtasks(children.toArray(new Task[0]));
+        task.setDone(node.done);
+        return task;
+    }
+
+    //узел: описание, создание, текст и момент дедлайна, выполнен, время удаления (0 - не удален), дети
+    private static TaskJournal putImported(TaskJournal out, TaskTransfer.Node node) {
+        out.putString(node.description).putLong(node.createdMillis).putString(node.deadline).putLong(node.deadlineMillis)
+                .putInt(node.done ? 1 : 0).putLong(node.deletedAt).putInt(node.subtasks.size());
+        for (TaskTransfer.Node subtask : node.subtasks) {
+            putImported(out, subtask);
+        }
+        return out;
+    }
+
+    private static TaskTransfer.Node getImported(ByteBuffer record) {
+        TaskTransfer.Node node = new TaskTransfer.Node();
+        node.description = TaskJournal.getString(record);
+        node.createdMillis = record.getLong();
+        node.deadline = TaskJournal.getString(record);
+        node.deadlineMillis = record.getLong();
+        node.done = record.getInt() != 0;
+        node.deletedAt = record.getLong();
+        int count = record.getInt();
+        for (int i = 0; i < count; i++) {
+            node.subtasks.add(getImported(record));
+        }
+        return node;
+    }
+
+    public void moveTask(int from, int to) {
+        ReorderEvent event = new ReorderEvent();
+        event.begin();
+        write(() -> {
+            tasks.move(from, to);
+            log(out -> out.begin(TaskJournal.MOVE).putInt(from).putInt(to).commit());
+            remember(new UndoHistory.Delta(UndoHistory.MOVE).putInt(to).putInt(from));
+            commitReorder(event, 1, to);
+            return null;
+        });
+    }
+
+    public void moveTasks(List<BaseTask> movedTasks, int index) {
+        ReorderEvent event = new ReorderEvent();
+        event.begin();
+        write(() -> {
+            //позиции нужны до переноса - при проигрывании по ним найдутся те же задачи
+            log(out -> {
+                out.begin(TaskJournal.MOVE_ALL).putInt(movedTasks.size());
+                for (BaseTask task : movedTasks) {
+                    out.putInt(task.getPriority() - FIRST_PRIORITY);
+                }
+                out.putInt(index).commit();
+            });
+            UndoHistory.Delta inverse = new UndoHistory.Delta(UndoHistory.PLACE).putInt(movedTasks.size());
+            for (BaseTask task : movedTasks) {
+                inverse.putLong(task.getId()).putInt(task.getPriority() - FIRST_PRIORITY);
+            }
+            remember(inverse);
+            tasks.moveAll(movedTasks, index);
+            commitReorder(event, movedTasks.size(), index);
+            return null;
+        });
+    }
+
+    //событие JFR пишется, только если перестановка заняла дольше порога
+    private void commitReorder(ReorderEvent event, int moved, int to) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.moved = moved;
+            event.to = to;
+            event.tasks = tasks.size();
+            event.commit();
+        }
+    }
+
+    private static int subtreeSizeOf(BaseTask task) {
+        return task instanceof Task ? ((Task) task).getSubtreeSize() : 0;
+    }
+
+    private <T> T write(Supplier<T> change) {
+        if (writer == Thread.currentThread()) return change.get();
+        T result;
+        long stamp = lock.writeLock();
+        writer = Thread.currentThread();
+        try {
+            result = change.get();
+        } finally {
+            writer = null;
+            lock.unlockWrite(stamp);
+        }
+        compactIfNeeded();
+        return result;
+    }
+
+    //правка одной задачи: под блокировкой чтения структура не меняется, так что позиция index
+    //остается верной, а замок полосы не дает двум потокам править одну задачу одновременно
+    private void editTask(int index, Consumer<BaseTask> edit) {
+        if (writer == Thread.currentThread()) {
+            edit.accept(tasks.get(index));
+            return;
+        }
+        long stamp = lock.readLock();
+        try {
+            BaseTask task = tasks.get(index);
+            ReentrantLock stripe = stripes[System.identityHashCode(task) & (STRIPES - 1)];
+            stripe.lock();
+            try {
+                edit.accept(task);
+            } finally {
+                stripe.unlock();
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        compactIfNeeded();
+    }
+
+    private static Task asTask(BaseTask task, int index) {
+        if (!(task instanceof Task)) {
+            throw new IllegalArgumentException("task " + (index + 1) + " cannot have subtasks or deadline");
+        }
+        return (Task) task;
+    }
+
+    private void indexTask(BaseTask task) {
+        indexLock.writeLock().lock();
+        try {
+            if (searchIndex != null) searchIndex.put(task);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    private void unindexTask(BaseTask task) {
+        indexLock.writeLock().lock();
+        try {
+            if (searchIndex != null) searchIndex.remove(task);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    //напоминание задачи списка: дедлайн есть и задача не выполнена; у подзадач напоминаний нет, как нет их
+    //и в виде по дедлайнам
+    private void remind(BaseTask task) {
+        DeadlineReminders current = reminders;
+        if (current == null) return;
+        long deadline = reminderDeadline(task);
+        if (deadline == Deadlines.NONE) {
+            current.cancel(task.getId());
+        } else {
+            current.schedule(task.getId(), deadline);
+        }
+    }
+
+    private static long reminderDeadline(BaseTask task) {
+        if (!(task instanceof Task) || ((Task) task).isDone()) return Deadlines.NONE;
+        return ((Task) task).getDeadlineMillis();
+    }
+
+    private void forgetReminder(BaseTask task) {
+        DeadlineReminders current = reminders;
+        if (current != null) current.cancel(task.getId());
+    }
+
+    //обратная правка для undo; при проигрывании журнала история не ведется
+    private void remember(UndoHistory.Delta inverse) {
+        if (replaying) return;
+        if (inverses != null) {
+            inverses.add(inverse.toBytes()); //идет отмена или повтор - это шаг для обратной стороны
+        } else {
+            history.done(inverse.toBytes());
+        }
+    }
+
+    //путь узла под его задачей списка
+    private static int[] pathOf(Task node) {
+        int depth = 0;
+        for (Task up = node.parent; up != null; up = up.parent) {
+            depth++;
+        }
+        int[] path = new int[depth];
+        for (Task child = node; child.parent != null; child = child.parent) {
+            path[--depth] = child.parent.getSubtasks().indexOf(child);
+        }
+        return path;
+    }
+
+    //ставится в очередь журнала как обычные правки, так что после перезапуска отмена остается в силе;
+    //false если отменять (повторять) нечего
+    public boolean undo() { return step(true); }
+    public boolean redo() { return step(false); }
+
+    public int getUndoCount() { return history.undoCount(); }
+    public int getRedoCount() { return history.redoCount(); }
+
+    //шаг применяется целиком под одной блокировкой записи, так что чужие правки в него не вклиниваются,
+    //а позиции из истории совпадают с текущими; обратные правки собираются в шаг для другой стороны
+    private boolean step(boolean undo) {
+        return write(() -> {
+            byte[] step = undo ? history.popUndo() : history.popRedo();
+            if (step == null) return false;
+            inverses = new ArrayList<>();
+            try {
+                UndoHistory.Reader in = new UndoHistory.Reader(step);
+                while (in.hasNext()) {
+                    applyInverse(in);
+                }
+            } finally {
+                //если шаг сорвался на середине (запись уже забыта корзиной), сделанное все равно можно вернуть
+                if (!inverses.isEmpty()) {
+                    byte[] opposite = UndoHistory.reverse(inverses);
+                    if (undo) history.pushRedo(opposite); else history.pushUndo(opposite);
+                }
+                inverses = null;
+            }
+            return true;
+        });
+    }
+
+    private void applyInverse(UndoHistory.Reader in) {
+        byte operation = in.operation();
+        switch (operation) {
+            case UndoHistory.DELETE_TASK:
+                removeTask(in.getInt());
+                break;
+            case UndoHistory.RESTORE_TASK: {
+                restoreArchivedTask(in.getLong());
+                int index = in.getInt();
+                if (index != tasks.size() - 1) moveTask(tasks.size() - 1, index);
+                break;
+            }
+            case UndoHistory.EDIT:
+                editDescription(in.getInt(), in.getString());
+                break;
+            case UndoHistory.DEADLINE: {
+                int index = in.getInt();
+                int[] path = in.getPath();
+                setDeadline(index, path, in.getString());
+                break;
+            }
+            case UndoHistory.DONE: {
+                int index = in.getInt();
+                int[] path = in.getPath();
+                setDone(index, path, in.getInt() != 0);
+                break;
+            }
+            case UndoHistory.DELETE_SUBTASK: {
+                int index = in.getInt();
+                int[] path = in.getPath();
+                removeSubtask(index, path, System.currentTimeMillis(), in.getLong());
+                break;
+            }
+            case UndoHistory.RESTORE_SUBTASK: {
+                long id = in.getLong();
+                if (restoreArchivedSubtask(id, in.getInt()) == null) {
+                    throw new IllegalStateException("cannot undo: the task of deleted subtask " + id + " is not in the list");
+                }
+                break;
+            }
+            case UndoHistory.MOVE: {
+                int from = in.getInt();
+                moveTask(from, in.getInt());
+                break;
+            }
+            case UndoHistory.PLACE: {
+                //все задачи - в конец, затем по одной на свои места по возрастанию: каждая встает туда,
+                //где перед ней уже стоят ровно те задачи, что стояли до переноса
+                int count = in.getInt();
+                long[] movedIds = new long[count];
+                int[] positions = new int[count];
+                ArrayList<BaseTask> moved = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    movedIds[i] = in.getLong();
+                    positions[i] = in.getInt();
+                    moved.add(ids.get(movedIds[i]));
+                }
+                moveTasks(moved, tasks.size() - count);
+                Integer[] order = new Integer[count];
+                for (int i = 0; i < count; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, Comparator.comparingInt(i -> positions[i]));
+                for (int i : order) {
+                    moveTask(tasks.indexOf(ids.get(movedIds[i])), positions[i]);
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("unknown undo operation: " + operation);
+        }
+    }
+
+    //правки разных задач пишут в журнал параллельно, а запись собирается из нескольких вызовов -
+    //поэтому вся запись собирается под монитором журнала, а в файл уходит уже после него (TaskJournal.append)
+    private void log(Consumer<TaskJournal> record) {
+        TaskJournal out = journal;
+        if (out == null || replaying) return;
+        out.append(record);
+    }
+
+    //хранилище
+
+    //загрузка: сначала снимок, затем хвост журнала; вызывается до того, как список увидят другие потоки
+    public void openStorage(Path dir, boolean syncEachRecord) throws IOException {
+        Files.createDirectories(dir);
+        deletedTasks.spillTo(dir.resolve(DELETED_TASKS_FILE));
+        synchronized (deletedSubtasks) {
+            deletedSubtasks.spillTo(dir.resolve(DELETED_SUBTASKS_FILE));
+        }
+        history.spillTo(dir);
+        long generation = loadSnapshot(dir.resolve(SNAPSHOT_FILE));
+
+        replaying = true;
+        try {
+            journal = TaskJournal.open(dir.resolve(JOURNAL_FILE), generation, syncEachRecord, this::applyRecord);
+        } finally {
+            replaying = false;
+        }
+        dataDir = dir;
+    }
+
+    //длинный журнал при выходе сворачивается в снимок: снимок следующий запуск читает лениво, а журнал
+    //проигрывает целиком, и для одной команды из командной строки это почти все время запуска
+    public void close() throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            if (journal != null) {
+                try {
+                    if (journal.getRecordCount() >= compactThreshold() / COMPACT_ON_CLOSE_FRACTION) writeSnapshot();
+                } finally {
+                    journal.close();
+                }
+            }
+            history.close();
+            if (reminders != null) reminders.close();
+            deletedTasks.close();
+            synchronized (deletedSubtasks) {
+                deletedSubtasks.close();
+            }
+        } finally {
+            journal = null;
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    //после каждой записи проверяем, не пора ли свернуть журнал в снимок
+    //порог растет вместе со списком, иначе при массовой загрузке снимок большого списка писался бы каждые 10к операций
+    private void compactIfNeeded() {
+        TaskJournal current = journal;
+        if (current == null || replaying || current.getRecordCount() < compactThreshold()) return;
+
+        long stamp = lock.writeLock();
+        try {
+            if (journal != null && journal.getRecordCount() >= compactThreshold()) {
+                writeSnapshot();
+            }
+        } catch (IOException e) {
+            warnings.accept("cannot write snapshot: " + e.getMessage());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private long compactThreshold() {
+        return Math.max(COMPACT_EVERY_RECORDS, tasks.size() + deletedTasks.size());
+    }
+
+    public void onWarning(Consumer<String> warnings) { this.warnings = warnings; }
+
+    //записи журнала после последнего снимка; 0 - снимок уже полный
+    public long getJournalRecordCount() {
+        TaskJournal current = journal;
+        return current == null ? 0 : current.getRecordCount();
+    }
+
+    public void saveSnapshot() throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            writeSnapshot();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    //снимок пишется во временный файл и атомарно подменяет старый, только потом журнал обнуляется;
+    //если упасть между этими шагами, журнал старого поколения при загрузке будет пропущен
+    private void writeSnapshot() throws IOException {
+        long generation = journal.getGeneration() + 1;
+        Path target = dataDir.resolve(SNAPSHOT_FILE);
+        Path temp = dataDir.resolve(SNAPSHOT_FILE + ".tmp");
+
+        synchronized (deletedSubtasks) {
+            TaskSnapshot.write(temp, generation, nextId, tasks, lazySource, deletedTasks, deletedSubtasks);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal.reset(generation);
+    }
+
+    //возвращает поколение снимка (0 если снимка еще нет); задачи списка создаются лениво,
+    //когда их впервые покажут или проиндексируют для поиска
+    private long loadSnapshot(Path file) throws IOException {
+        if (!Files.exists(file)) return 0;
+
+        TaskSnapshot snapshot = TaskSnapshot.open(file);
+        lazySource = snapshot;
+        tasks.loadLazy(snapshot.getLiveCount(), snapshot::materialize);
+        ids.ensureCapacity(snapshot.getLiveCount());
+        for (int row = 0; row < snapshot.getLiveCount(); row++) {
+            ids.putRow(snapshot.getId(row), row);
+            subtaskCount.add(snapshot.getSubtreeSize(row));
+        }
+        nextId = snapshot.getNextId();
+
+        for (int row = snapshot.getLiveCount(); row < snapshot.getRows(); row++) {
+            deletedTasks.load(snapshot.getId(row), snapshot.materialize(row), snapshot.getDeletedAt(row));
+        }
+        synchronized (deletedSubtasks) {
+            for (int i = 0; i < snapshot.getArchivedCount(); i++) {
+                deletedSubtasks.load(snapshot.getArchivedId(i), new SubtaskArchive(snapshot.getArchivedRootId(i),
+                                snapshot.getArchivedParentId(i), snapshot.materializeArchived(i), null),
+                        snapshot.getArchivedAt(i));
+            }
+        }
+        return snapshot.getGeneration();
+    }
+
+    //повторяет операцию из журнала теми же методами, что вызывают клиенты
+    private void applyRecord(ByteBuffer record) {
+        byte operation = record.get();
+        switch (operation) {
+            case TaskJournal.CREATE:
+                String description = TaskJournal.getString(record);
+                insertTask(description, record.getLong());
+                break;
+            case TaskJournal.EDIT:
+                editDescription(record.getInt(), TaskJournal.getString(record));
+                break;
+            case TaskJournal.DEADLINE:
+                setDeadline(record.getInt(), TaskJournal.getString(record));
+                break;
+            case TaskJournal.MOVE:
+                moveTask(record.getInt(), record.getInt());
+                break;
+            case TaskJournal.MOVE_ALL:
+                ArrayList<BaseTask> movedTasks = new ArrayList<>();
+                int count = record.getInt();
+                for (int i = 0; i < count; i++) {
+                    movedTasks.add(tasks.get(record.getInt()));
+                }
+                moveTasks(movedTasks, record.getInt());
+                break;
+            case TaskJournal.DELETE_AT:
+                removeTask(record.getInt(), record.getLong());
+                break;
+            case TaskJournal.RESTORE_TASK_BY_ID:
+                restoreArchivedTask(record.getLong());
+                break;
+            case TaskJournal.RESTORE_SUBTASK_BY_ID:
+                restoreArchivedSubtask(record.getLong());
+                break;
+            case TaskJournal.ADD_SUBTASK_AT: {
+                int index = record.getInt();
+                int[] path = TaskJournal.getPath(record);
+                long createdMillis = record.getLong();
+                appendSubtask(index, path, TaskJournal.getString(record), createdMillis);
+                break;
+            }
+            case TaskJournal.DELETE_SUBTASK_PATH:
+                removeSubtask(record.getInt(), TaskJournal.getPath(record), record.getLong());
+                break;
+            case TaskJournal.DEADLINE_AT:
+                setDeadline(record.getInt(), TaskJournal.getPath(record), TaskJournal.getString(record));
+                break;
+            case TaskJournal.DONE:
+                setDone(record.getInt(), TaskJournal.getPath(record), record.getInt() != 0);
+                break;
+            case TaskJournal.DELETE_SUBTASK_AS: {
+                int index = record.getInt();
+                int[] path = TaskJournal.getPath(record);
+                long deletedAt = record.getLong();
+                removeSubtask(index, path, deletedAt, record.getLong());
+                break;
+            }
+            case TaskJournal.RESTORE_SUBTASK_AT:
+                restoreArchivedSubtask(record.getLong(), record.getInt());
+                break;
+            case TaskJournal.IMPORT:
+                importTasks(List.of(getImported(record)));
+                break;
+            default:
+                throw new IllegalStateException("unknown journal operation: " + operation);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.time.LocalDate;
+import java.time.Instant;
+import java.time.ZoneId;
+
+//вывод списков: строки собираются в один переиспользуемый буфер и печатаются одной записью,
+//а не отдельным println на каждую строку
+class TaskRenderer {
+    private static final int FLUSH_CHARS = 1 << 16;
+    private static final String NEW_LINE = System.lineSeparator();
+
+    private final StringBuilder buffer = new StringBuilder(FLUSH_CHARS);
+    private final PrintStream out;
+
+    TaskRenderer(PrintStream out) {
+        this.out = out;
+    }
+
+    //не больше count задач, нумерация с firstNumber; возвращает сколько задач напечатано
+    public int renderList(Iterator<BaseTask> tasks, int firstNumber, int count, boolean showDates) {
+        int rendered = 0;
+        while (rendered < count && tasks.hasNext()) {
+            appendTask(tasks.next(), firstNumber + rendered, showDates, true);
+            rendered++;
+        }
+        flush();
+        return rendered;
+    }
+
+    public TaskRenderer appendTask(BaseTask task, int number, boolean showDates, boolean withSubtasks) {
+        return appendTask(task, number, showDates, withSubtasks ? 1 : 0);
+    }
+
+    //levels - сколько уровней подзадач раскрыть; у нераскрытых веток печатается только итог (сколько
+    //подзадач и сколько выполнено), и из снимка они не читаются
+    public TaskRenderer appendTask(BaseTask task, int number, boolean showDates, int levels) {
+        buffer.append(number).append("\\\\ ");
+        task.appendTo(buffer);
+        Task node = task instanceof Task ? (Task) task : null;
+        if (node != null && node.isDone()) buffer.append(" (done)");
+        buffer.append(" [priority: ").append(task.getPriority()).append(", id: #").append(task.getId());
+        if (showDates) {
+            buffer.append(", date: ").append(task.getCreatedDate().toLocalDate());
+        }
+        if (node != null && node.hasSubtasks()) {
+            buffer.append(", subtasks done: ").append(node.getSubtreeDone()).append('/').append(node.getSubtreeSize());
+        }
+        buffer.append(']').append(NEW_LINE);
+
+        if (levels > 0 && node != null && node.hasSubtasks()) {
+            appendSubtasks(node, Integer.toString(number), 1, levels);
+        }
+        flushIfFull();
+        return this;
+    }
+
+    private void appendSubtasks(Task task, String number, int depth, int levels) {
+        List<Task> subtasks = task.getSubtasks();
+        for (int j = 0; j < subtasks.size(); j++) {
+            Task subtask = subtasks.get(j);
+            String subtaskNumber = number + '.' + (j + 1);
+            appendSubtask(subtaskNumber, depth, subtask, "");
+            if (depth < levels && subtask.hasSubtasks()) {
+                appendSubtasks(subtask, subtaskNumber, depth + 1, levels);
+            }
+        }
+    }
+
+    //number - полный номер вида 3.1.2, depth - глубина (1 у подзадач задачи списка)
+    public TaskRenderer appendSubtask(String number, int depth, Task subtask, String note) {
+        for (int i = 0; i < depth; i++) {
+            buffer.append("   ");
+        }
+        buffer.append(number).append(' ');
+        subtask.appendTo(buffer);
+        if (subtask.isDone()) buffer.append(" (done)");
+        if (subtask.hasSubtasks()) {
+            buffer.append(" [subtasks done: ").append(subtask.getSubtreeDone()).append('/')
+                    .append(subtask.getSubtreeSize()).append(']');
+        }
+        buffer.append(note).append(NEW_LINE);
+        flushIfFull();
+        return this;
+    }
+
+    //путь от задачи до подзадачи - остальные ветки не раскрываются
+    public TaskRenderer appendBranch(int taskNumber, Task subtask, String note) {
+        ArrayList<Task> branch = new ArrayList<>();
+        for (Task node = subtask; node.parent != null; node = node.parent) {
+            branch.add(node);
+        }
+        for (int depth = 1; depth <= branch.size(); depth++) {
+            Task node = branch.get(branch.size() - depth);
+            appendSubtask(node.getNumber(taskNumber), depth, node, depth == branch.size() ? note : "");
+        }
+        return this;
+    }
+
+    //записи корзины подписаны id - по нему их и восстанавливают
+    public TaskRenderer appendArchived(long id, String text, long deletedAt, String note) {
+        buffer.append('#').append(id).append(' ').append(text).append(note).append(" [deleted: ")
+                .append(LocalDate.ofInstant(Instant.ofEpochMilli(deletedAt), ZoneId.systemDefault())).append(']').append(NEW_LINE);
+        flushIfFull();
+        return this;
+    }
+
+    public TaskRenderer appendLine(String line) {
+        buffer.append(line).append(NEW_LINE);
+        flushIfFull();
+        return this;
+    }
+
+    public void flush() {
+        if (buffer.length() == 0) return;
+        out.append(buffer);
+        out.flush();
+        buffer.setLength(0);
+    }
+
+    private void flushIfFull() {
+        if (buffer.length() >= FLUSH_CHARS) {
+            flush();
+        }
+    }
+}
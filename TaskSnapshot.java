@@ -0,0 +1,385 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+//колоночный снимок списка, который открывается через mmap и читается по узлам по требованию
+//узлы: сначала задачи списка по порядку, затем корзина удаленных задач (от старых к новым), затем
+//корзина подзадач, затем остальные подзадачи - дети каждого узла лежат подряд (обход в ширину),
+//поэтому ветку дерева можно прочитать, не трогая остальные
+//[заголовок][арена строк: int длина + UTF-8][колонки: created long, deadlineTime long, id long (по узлам),
+// deletedAt long (по задачам), archivedId long, archivedRootId long, archivedParentId long, archivedAt long
+// (по корзине подзадач), priority int (по задачам), description int, deadline int (-1 если нет), childStart int,
+// childCount int, subtreeSize int, subtreeDone int, flags byte (по узлам)]; ссылки на строки - смещения от начала арены
+//читается только версия 5; снимки версий 3 и 4 (подзадачи - строки без id и своих подзадач) не открываются -
+//их данные надо выгрузить старой сборкой (--export) и загрузить в новую (--import)
+class TaskSnapshot {
+    private static final int MAGIC = 0x54445332; //"TDS2"
+    private static final int VERSION = 5;
+    private static final int HEADER_SIZE = 48;
+    private static final int NO_STRING = -1;
+    private static final byte DONE = 1;
+
+    private final MappedByteBuffer data;
+    private final long generation;
+    private final long nextId;
+    private final int rows;
+    private final int liveCount;
+    private final int nodes;
+    private final int archivedCount;
+    private final int arena;
+    private final int createdColumn;
+    private final int deadlineTimeColumn;
+    private final int idColumn;
+    private final int deletedAtColumn;
+    private final int archivedIdColumn;
+    private final int archivedRootColumn;
+    private final int archivedParentColumn;
+    private final int archivedAtColumn;
+    private final int priorityColumn;
+    private final int descriptionColumn;
+    private final int deadlineColumn;
+    private final int childStartColumn;
+    private final int childCountColumn;
+    private final int subtreeSizeColumn;
+    private final int subtreeDoneColumn;
+    private final int flagsColumn;
+
+    private TaskSnapshot(MappedByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.getInt(0) != MAGIC) {
+            throw new IOException("unknown snapshot format");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException("snapshot format version " + data.getInt(4) + " is not supported (expected " + VERSION
+                    + "); export the list with the build that wrote it (--export) and import it here (--import)");
+        }
+        generation = data.getLong(8);
+        rows = data.getInt(16);
+        liveCount = data.getInt(20);
+        nodes = data.getInt(24);
+        archivedCount = data.getInt(28);
+        arena = HEADER_SIZE;
+        createdColumn = (int) data.getLong(32);
+        nextId = data.getLong(40);
+        deadlineTimeColumn = createdColumn + nodes * 8;
+        idColumn = deadlineTimeColumn + nodes * 8;
+        deletedAtColumn = idColumn + nodes * 8;
+        archivedIdColumn = deletedAtColumn + rows * 8;
+        archivedRootColumn = archivedIdColumn + archivedCount * 8;
+        archivedParentColumn = archivedRootColumn + archivedCount * 8;
+        archivedAtColumn = archivedParentColumn + archivedCount * 8;
+        priorityColumn = archivedAtColumn + archivedCount * 8;
+        descriptionColumn = priorityColumn + rows * 4;
+        deadlineColumn = descriptionColumn + nodes * 4;
+        childStartColumn = deadlineColumn + nodes * 4;
+        childCountColumn = childStartColumn + nodes * 4;
+        subtreeSizeColumn = childCountColumn + nodes * 4;
+        subtreeDoneColumn = subtreeSizeColumn + nodes * 4;
+        flagsColumn = subtreeDoneColumn + nodes * 4;
+        if (flagsColumn + nodes > data.capacity()) {
+            throw new IOException("snapshot is truncated");
+        }
+    }
+
+    //файл только отображается в память - задачи из него еще не созданы
+    static TaskSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("snapshot is too large to map: " + channel.size() + " bytes");
+            }
+            return new TaskSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    long getGeneration() { return generation; }
+    long getNextId() { return nextId; }
+    int getLiveCount() { return liveCount; }
+    int getRows() { return rows; }
+    int getArchivedCount() { return archivedCount; }
+
+    int getPriority(int row) { return data.getInt(priorityColumn + row * 4); }
+    long getId(int row) { return data.getLong(idColumn + row * 8); }
+    long getDeletedAt(int row) { return data.getLong(deletedAtColumn + row * 8); }
+    long getArchivedId(int i) { return data.getLong(archivedIdColumn + i * 8); }
+    long getArchivedAt(int i) { return data.getLong(archivedAtColumn + i * 8); }
+    long getArchivedParentId(int i) { return data.getLong(archivedParentColumn + i * 8); }
+    //задача списка, к дереву которой относилась подзадача
+    long getArchivedRootId(int i) { return data.getLong(archivedRootColumn + i * 8); }
+
+    //всего подзадач в дереве задачи, без чтения самих подзадач
+    int getSubtreeSize(int row) { return data.getInt(subtreeSizeColumn + row * 4); }
+
+    //сама задача и итоги ее дерева; подзадачи прочитаются, когда их впервые попросят
+    Task materialize(int row) {
+        Task task = node(row);
+        task.setPriority(getPriority(row));
+        return task;
+    }
+
+    //корень удаленной подзадачи вместе с ее поддеревом
+    Task materializeArchived(int i) {
+        return node(rows + i);
+    }
+
+    private Task node(int node) {
+        Task task = new Task(readString(data.getInt(descriptionColumn + node * 4)), 0,
+                data.getLong(createdColumn + node * 8));
+        task.id = data.getLong(idColumn + node * 8);
+
+        int deadline = data.getInt(deadlineColumn + node * 4);
+        if (deadline != NO_STRING) {
+            task.setDeadline(readString(deadline), data.getLong(deadlineTimeColumn + node * 8));
+        }
+
+        int first = data.getInt(childStartColumn + node * 4);
+        int count = data.getInt(childCountColumn + node * 4);
+        task.load((data.get(flagsColumn + node) & DONE) != 0, data.getInt(subtreeSizeColumn + node * 4),
+                data.getInt(subtreeDoneColumn + node * 4), count == 0 ? null : new Subtree(first, count));
+        return task;
+    }
+
+    //непрочитанные подзадачи узла: следующий снимок копирует их отсюда, не создавая задач
+    private final class Subtree implements Task.SubtaskLoader {
+        final int first;
+        final int count;
+
+        Subtree(int first, int count) {
+            this.first = first;
+            this.count = count;
+        }
+
+        public List<Task> load() { return nodes(first, count); }
+        TaskSnapshot source() { return TaskSnapshot.this; }
+    }
+
+    private List<Task> nodes(int first, int count) {
+        Task[] loaded = new Task[count];
+        for (int i = 0; i < count; i++) {
+            loaded[i] = node(first + i);
+        }
+        return List.of(loaded);
+    }
+
+    private String readString(int offset) {
+        return new String(readBytes(offset), StandardCharsets.UTF_8);
+    }
+
+    //узлы нового снимка в порядке обхода в ширину: задача в памяти (row == -1) или узел row снимка-источника,
+    //который так и не прочитали, и его дети - отрезок узлов нового снимка
+    private static final class Order {
+        BaseTask[] tasks;
+        int[] rows;
+        int[] childStart;
+        int[] childCount;
+        int size;
+
+        Order(int capacity) {
+            capacity = Math.max(capacity, 16);
+            tasks = new BaseTask[capacity];
+            rows = new int[capacity];
+            childStart = new int[capacity];
+            childCount = new int[capacity];
+        }
+
+        void add(BaseTask task, int row) {
+            if (size == tasks.length) {
+                int capacity = size + (size >> 1);
+                tasks = Arrays.copyOf(tasks, capacity);
+                rows = Arrays.copyOf(rows, capacity);
+                childStart = Arrays.copyOf(childStart, capacity);
+                childCount = Arrays.copyOf(childCount, capacity);
+            }
+            tasks[size] = task;
+            rows[size++] = row;
+        }
+    }
+
+    //сначала обходом в ширину собираются все узлы, затем потоком пишется арена (смещения строк копятся
+    //в массивах) и колонки; задачи и ветки, которые еще лежат непрочитанными в source (снимок, из которого
+    //список загружен лениво), переносятся из него как есть - запись снимка не создает их в памяти
+    static void write(Path file, long generation, long nextId, TaskStore tasks, TaskSnapshot source,
+                      TrashStore<BaseTask> deletedTasks, TrashStore<TaskList.SubtaskArchive> deletedSubtasks) throws IOException {
+        int liveCount = tasks.size();
+        int rows = liveCount + deletedTasks.size();
+        int archivedCount = deletedSubtasks.size();
+        long[] deletedAt = new long[rows];
+        long[] archivedId = new long[archivedCount];
+        long[] archivedRoot = new long[archivedCount];
+        long[] archivedParent = new long[archivedCount];
+        long[] archivedAt = new long[archivedCount];
+
+        Order order = new Order(rows + archivedCount);
+        tasks.forEachRow(order::add);
+        Iterator<TrashStore.Entry<BaseTask>> deleted = deletedTasks.iterator(0);
+        for (int row = liveCount; row < rows; row++) {
+            TrashStore.Entry<BaseTask> entry = deleted.next();
+            order.add(entry.value, -1);
+            deletedAt[row] = entry.deletedAt;
+        }
+        Iterator<TrashStore.Entry<TaskList.SubtaskArchive>> archived = deletedSubtasks.iterator(0);
+        for (int i = 0; i < archivedCount; i++) {
+            TrashStore.Entry<TaskList.SubtaskArchive> entry = archived.next();
+            order.add(entry.value.subtask, -1);
+            archivedId[i] = entry.id;
+            archivedRoot[i] = entry.value.rootId;
+            archivedParent[i] = entry.value.parentId;
+            archivedAt[i] = entry.deletedAt;
+        }
+        for (int i = 0; i < order.size; i++) {
+            order.childStart[i] = order.size;
+            BaseTask task = order.tasks[i];
+            Subtree unloaded = task == null ? null : unloadedIn(source, task);
+            if (task == null) {
+                int row = order.rows[i];
+                source.addChildren(order, source.data.getInt(source.childStartColumn + row * 4),
+                        source.data.getInt(source.childCountColumn + row * 4));
+            } else if (unloaded != null) {
+                source.addChildren(order, unloaded.first, unloaded.count);
+            } else {
+                for (Task subtask : subtasksOf(task)) {
+                    order.add(subtask, -1);
+                }
+            }
+            order.childCount[i] = order.size - order.childStart[i];
+        }
+
+        int nodes = order.size;
+        long[] created = new long[nodes];
+        long[] deadlineTime = new long[nodes];
+        long[] id = new long[nodes];
+        int[] priority = new int[rows];
+        int[] description = new int[nodes];
+        int[] deadline = new int[nodes];
+        int[] subtreeSize = new int[nodes];
+        int[] subtreeDone = new int[nodes];
+        byte[] flags = new byte[nodes];
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.write(new byte[HEADER_SIZE]); //заголовок заполняется в конце
+
+            for (int node = 0; node < nodes; node++) {
+                BaseTask task = order.tasks[node];
+                if (task == null) {
+                    //непрочитанный узел: все колонки, кроме детей, переносятся без разбора строк
+                    int from = order.rows[node];
+                    ByteBuffer data = source.data;
+                    created[node] = data.getLong(source.createdColumn + from * 8);
+                    id[node] = data.getLong(source.idColumn + from * 8);
+                    if (node < rows) priority[node] = node + 1; //непрочитанными бывают только задачи списка
+                    description[node] = writeBytes(out, source.readBytes(data.getInt(source.descriptionColumn + from * 4)));
+                    int text = data.getInt(source.deadlineColumn + from * 4);
+                    deadline[node] = text == NO_STRING ? NO_STRING : writeBytes(out, source.readBytes(text));
+                    deadlineTime[node] = data.getLong(source.deadlineTimeColumn + from * 8);
+                    subtreeSize[node] = data.getInt(source.subtreeSizeColumn + from * 4);
+                    subtreeDone[node] = data.getInt(source.subtreeDoneColumn + from * 4);
+                    flags[node] = data.get(source.flagsColumn + from);
+                    continue;
+                }
+
+                created[node] = task.getCreatedMillis();
+                id[node] = task.getId();
+                if (node < rows) priority[node] = task.getPriority();
+                description[node] = writeString(out, task.description);
+                deadline[node] = NO_STRING;
+                deadlineTime[node] = Deadlines.NONE;
+
+                if (task instanceof Task) {
+                    Task concreteTask = (Task) task;
+                    if (concreteTask.hasDeadline()) {
+                        deadline[node] = writeString(out, concreteTask.getDeadline());
+                        deadlineTime[node] = concreteTask.getDeadlineMillis();
+                    }
+                    subtreeSize[node] = concreteTask.getSubtreeSize();
+                    subtreeDone[node] = concreteTask.getSubtreeDone();
+                    flags[node] = concreteTask.isDone() ? DONE : 0;
+                }
+            }
+
+            //колонки выравниваются на 8 байт, чтобы long читались по выровненным адресам
+            while (out.size() % 8 != 0) {
+                out.write(0);
+            }
+            long createdColumn = out.size();
+            for (long value : created) out.writeLong(value);
+            for (long value : deadlineTime) out.writeLong(value);
+            for (long value : id) out.writeLong(value);
+            for (long value : deletedAt) out.writeLong(value);
+            for (long value : archivedId) out.writeLong(value);
+            for (long value : archivedRoot) out.writeLong(value);
+            for (long value : archivedParent) out.writeLong(value);
+            for (long value : archivedAt) out.writeLong(value);
+            for (int value : priority) out.writeInt(value);
+            for (int value : description) out.writeInt(value);
+            for (int value : deadline) out.writeInt(value);
+            for (int i = 0; i < nodes; i++) out.writeInt(order.childStart[i]);
+            for (int i = 0; i < nodes; i++) out.writeInt(order.childCount[i]);
+            for (int value : subtreeSize) out.writeInt(value);
+            for (int value : subtreeDone) out.writeInt(value);
+            out.write(flags);
+            out.flush();
+
+            if (out.size() == Integer.MAX_VALUE) {
+                throw new IOException("snapshot is too large to map");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(generation)
+                    .putInt(rows).putInt(liveCount).putInt(nodes).putInt(archivedCount)
+                    .putLong(createdColumn).putLong(nextId).flip();
+            channel.write(header, 0);
+            channel.force(true);
+        }
+    }
+
+    //подзадачи задачи, которые еще не прочитаны из source
+    private static Subtree unloadedIn(TaskSnapshot source, BaseTask task) {
+        if (source == null || !(task instanceof Task)) return null;
+        Task.SubtaskLoader loader = ((Task) task).getUnloaded();
+        return loader instanceof Subtree && ((Subtree) loader).source() == source ? (Subtree) loader : null;
+    }
+
+    private void addChildren(Order order, int first, int count) {
+        for (int i = 0; i < count; i++) {
+            order.add(null, first + i);
+        }
+    }
+
+    private byte[] readBytes(int offset) {
+        int position = arena + offset;
+        byte[] bytes = new byte[data.getInt(position)];
+        data.get(position + 4, bytes);
+        return bytes;
+    }
+
+    private static List<Task> subtasksOf(BaseTask task) {
+        return task instanceof Task ? ((Task) task).getSubtasks() : List.of();
+    }
+
+    //возвращает смещение строки от начала арены; DataOutputStream.size() упирается в Integer.MAX_VALUE,
+    //а больше 2 ГБ все равно не отобразить одним буфером
+    private static int writeString(DataOutputStream out, String value) throws IOException {
+        return writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (out.size() == Integer.MAX_VALUE) {
+            throw new IOException("snapshot is too large to map");
+        }
+        int offset = out.size() - HEADER_SIZE;
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return offset;
+    }
+}
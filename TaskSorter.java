@@ -0,0 +1,152 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+class TaskSorter {
+    //сортировки с помощью сравнений через лямбда выражения
+    public static void sortByPriority(ArrayList<BaseTask> tasks) {
+        tasks.sort((t1, t2) -> Integer.compare(t1.getPriority(), t2.getPriority()));
+    }
+
+    public static void sortByDate(ArrayList<BaseTask> tasks) {
+        tasks.sort((t1, t2) -> Long.compare(t1.getCreatedMillis(), t2.getCreatedMillis()));
+    }
+
+    //поддерживаемые отсортированные виды списка: каждый строится при первом запросе,
+    //дальше правки обновляют его за O(log n), а страница из K задач читается за O(log n + K)
+    enum Order { PRIORITY, DATE, DEADLINE, DESCRIPTION }
+
+    private static final Comparator<BaseTask> BY_DATE =
+            (t1, t2) -> Long.compare(t1.getCreatedMillis(), t2.getCreatedMillis());
+    private static final Comparator<BaseTask> BY_DEADLINE =
+            (t1, t2) -> Long.compare(((Task) t1).getDeadlineMillis(), ((Task) t2).getDeadlineMillis());
+    private static final Comparator<BaseTask> BY_DESCRIPTION =
+            (t1, t2) -> String.CASE_INSENSITIVE_ORDER.compare(t1.description, t2.description);
+
+    private final TaskStore tasks;
+    private final EnumMap<Order, TaskStore> views = new EnumMap<>(Order.class);
+    //виды правятся из разных потоков (правки разных задач идут параллельно), поэтому у них свой замок;
+    //основное хранилище при этом должно быть неизменно - об этом заботится TaskList
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    TaskSorter(TaskStore tasks) {
+        this.tasks = tasks;
+    }
+
+    //по приоритету список уже упорядочен самим хранилищем
+    public ArrayList<BaseTask> page(Order order, int from, int count) {
+        return read(order, view -> page(view, from, count));
+    }
+
+    private static ArrayList<BaseTask> page(TaskStore view, int from, int count) {
+        ArrayList<BaseTask> page = new ArrayList<>(Math.max(0, Math.min(count, view.size() - from)));
+        Iterator<BaseTask> iterator = view.iterator(from);
+        while (page.size() < count && iterator.hasNext()) {
+            page.add(iterator.next());
+        }
+        return page;
+    }
+
+    public int size(Order order) { return read(order, TaskStore::size); }
+
+    //задачи с дедлайном раньше millis, по возрастанию дедлайна
+    public ArrayList<BaseTask> dueBefore(long millis) {
+        return read(Order.DEADLINE, view -> page(view, 0, firstDueAt(view, millis)));
+    }
+
+    public ArrayList<BaseTask> nextDue(long fromMillis, int limit) {
+        return read(Order.DEADLINE, view -> page(view, firstDueAt(view, fromMillis), limit));
+    }
+
+    private static int firstDueAt(TaskStore view, long millis) {
+        return view.firstIndexWhere(task -> ((Task) task).getDeadlineMillis() >= millis);
+    }
+
+    public void added(BaseTask task) {
+        lock.writeLock().lock();
+        try {
+            for (Order order : views.keySet()) {
+                insertSorted(order, task);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removed(BaseTask task) {
+        lock.writeLock().lock();
+        try {
+            for (TaskStore view : views.values()) {
+                int index = view.indexOf(task);
+                if (index != -1) view.remove(index);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //change меняет ключ задачи (описание или дедлайн): пока он меняется, задачи нет ни в одном виде,
+    //иначе соседние вставки сравнивали бы себя с ключом, которому позиция уже не соответствует
+    public void update(BaseTask task, Runnable change) {
+        lock.writeLock().lock();
+        try {
+            removed(task);
+            change.run();
+            added(task);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private <T> T read(Order order, Function<TaskStore, T> reader) {
+        if (order != Order.PRIORITY) build(order);
+        lock.readLock().lock();
+        try {
+            return reader.apply(order == Order.PRIORITY ? tasks : views.get(order));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //вид строится при первом запросе
+    private void build(Order order) {
+        lock.readLock().lock();
+        try {
+            if (views.containsKey(order)) return;
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (views.containsKey(order)) return;
+            views.put(order, new TreapTaskStore(false));
+            for (BaseTask task : tasks) {
+                insertSorted(order, task);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //равные ключи встают после уже имеющихся, поэтому порядок среди них совпадает с порядком добавления
+    private void insertSorted(Order order, BaseTask task) {
+        if (order == Order.DEADLINE && !(task instanceof Task && ((Task) task).getDeadlineMillis() != Deadlines.NONE)) return;
+
+        Comparator<BaseTask> comparator = comparator(order);
+        TaskStore view = views.get(order);
+        view.insert(view.firstIndexWhere(other -> comparator.compare(other, task) > 0), task);
+    }
+
+    private static Comparator<BaseTask> comparator(Order order) {
+        switch (order) {
+            case DATE: return BY_DATE;
+            case DEADLINE: return BY_DEADLINE;
+            case DESCRIPTION: return BY_DESCRIPTION;
+            default: throw new IllegalArgumentException("no separate view for " + order);
+        }
+    }
+}
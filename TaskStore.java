@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+interface TaskStore extends Iterable<BaseTask> {
+    int size();
+    BaseTask get(int index);
+    void add(BaseTask task);
+    void insert(int index, BaseTask task);
+    BaseTask remove(int index);
+    int indexOf(BaseTask task); //-1 если задачи нет в хранилище
+
+    default boolean isEmpty() { return size() == 0; }
+
+    //обход начиная с позиции from
+    default Iterator<BaseTask> iterator(int from) {
+        Iterator<BaseTask> iterator = iterator();
+        for (int i = 0; i < from && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        return iterator;
+    }
+
+    //позиция первой задачи, для которой predicate истинен (size() если таких нет);
+    //predicate должен быть монотонным: ложь для начала списка, истина для конца
+    default int firstIndexWhere(Predicate<BaseTask> predicate) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (predicate.test(get(middle))) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    //заполняет пустое хранилище count задачами, которые loader создает по номеру строки;
+    //хранилище может откладывать создание задачи до первого обращения к ней
+    default void loadLazy(int count, IntFunction<BaseTask> loader) {
+        for (int row = 0; row < count; row++) {
+            add(loader.apply(row));
+        }
+    }
+
+    //задача строки row из loadLazy (создается, если ее еще не было); null если ее уже нет в хранилище
+    BaseTask getLoaded(int row);
+
+    //обход по порядку, который не создает задачи из loadLazy: еще не созданная задача приходит
+    //как task == null с номером своей строки, остальные - как есть с row == -1
+    interface RowVisitor {
+        void visit(BaseTask task, int row);
+    }
+
+    default void forEachRow(RowVisitor visitor) {
+        for (BaseTask task : this) {
+            visitor.visit(task, -1);
+        }
+    }
+
+    default void move(int from, int to) { insert(to, remove(from)); }
+
+    //переносит задачи одним блоком в порядке списка; index считается по списку без них
+    default void moveAll(List<BaseTask> moved, int index) {
+        for (BaseTask task : moved) {
+            remove(indexOf(task));
+        }
+        for (int i = 0; i < moved.size(); i++) {
+            insert(index + i, moved.get(i));
+        }
+    }
+
+    default ArrayList<BaseTask> toList() {
+        ArrayList<BaseTask> list = new ArrayList<>(size());
+        for (BaseTask task : this) {
+            list.add(task);
+        }
+        return list;
+    }
+
+    //задачи позиций from..to-1 для параллельного обхода; хранилище в это время менять нельзя
+    default Range spliterator(int from, int to) { return new Range(this, from, to); }
+
+    //делится пополам по позициям, пока обход не начался; дальше идет обычным итератором с первой позиции,
+    //так что у дерева каждая часть стоит O(log n) на спуск и O(1) на задачу
+    class Range implements Spliterator<BaseTask> {
+        private final TaskStore store;
+        private int from;
+        private final int to;
+        private Iterator<BaseTask> iterator;
+
+        Range(TaskStore store, int from, int to) {
+            this.store = store;
+            this.from = from;
+            this.to = to;
+        }
+
+        //позиция следующей задачи
+        public int position() { return from; }
+
+        public boolean tryAdvance(Consumer<? super BaseTask> action) {
+            if (from >= to) return false;
+            if (iterator == null) iterator = store.iterator(from);
+            action.accept(iterator.next());
+            from++;
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super BaseTask> action) {
+            if (from >= to) return;
+            if (iterator == null) iterator = store.iterator(from);
+            for (; from < to; from++) {
+                action.accept(iterator.next());
+            }
+        }
+
+        public Range trySplit() {
+            if (iterator != null || to - from < 2) return null;
+            int middle = (from + to) >>> 1;
+            Range prefix = new Range(store, from, middle);
+            from = middle;
+            return prefix;
+        }
+
+        public long estimateSize() { return to - from; }
+        public int characteristics() { return ORDERED | SIZED | SUBSIZED | NONNULL; }
+    }
+}
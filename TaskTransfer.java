@@ -0,0 +1,641 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+//импорт и экспорт всего списка: задачи с подзадачами любой глубины, дедлайнами, отметками о выполнении
+//и корзиной. Файл читается и пишется потоком через буферизованный канал - в памяти одновременно только
+//пачка задач, так что размер файла ограничен лишь диском. Формат - по расширению: .json или .csv
+//
+//JSON: массив задач, у каждой description, priority, created (мс от эпохи или дата), deadline, done,
+//subtasks (такие же объекты) и deleted (мс) у удаленных. Лишние поля пропускаются, поэтому читается
+//и вывод GET /tasks?depth=all
+//CSV: path,description,created,deadline,done,deleted - строка на узел, сверху вниз; path вида 3.1.2
+//задает место в дереве (порядок берется из файла, номера только проверяются на глубину)
+//
+//deleted у задачи верхнего уровня - задача в корзине, у подзадачи - удаленная подзадача, которая
+//при восстановлении вернется к своему узлу; импорт добавляет задачи в конец списка с новыми id
+class TaskTransfer {
+    private static final int PAGE = 1000; //задач из списка или корзины за одно чтение при экспорте
+    private static final int BATCH_TASKS = 1024; //задач в одной пачке импорта - одна блокировка списка на пачку
+    private static final int BATCH_NODES = 16 * 1024; //пачка закрывается раньше, если у задач много подзадач
+    private static final int BUFFER_CHARS = 1 << 16;
+    private static final int MAX_DEPTH = 256;
+    private static final String[] CSV_COLUMNS = { "path", "description", "created", "deadline", "done", "deleted" };
+
+    enum Format {
+        CSV, JSON;
+
+        static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (name.endsWith(".csv")) return CSV;
+            if (name.endsWith(".json")) return JSON;
+            throw new IllegalArgumentException("use a .csv or .json file, got: " + file);
+        }
+    }
+
+    //узел дерева в том виде, в каком он лежит в файле (и в записи журнала об импорте)
+    static class Node {
+        String description;
+        long createdMillis;
+        String deadline = ""; //пустая строка - без дедлайна
+        long deadlineMillis = Deadlines.NONE;
+        boolean done;
+        long deletedAt; //0 если узел не удален
+        final ArrayList<Node> subtasks = new ArrayList<>();
+
+        int size() {
+            int size = 1;
+            for (Node subtask : subtasks) {
+                size += subtask.size();
+            }
+            return size;
+        }
+    }
+
+    //итог импорта или экспорта для сообщения пользователю
+    static class Stats {
+        long tasks; //задачи списка
+        long subtasks; //подзадачи любой глубины, в том числе в корзине
+        long deleted; //задачи в корзине и удаленные подзадачи
+        long skipped; //удаленные подзадачи, чьих узлов нет ни в списке, ни в корзине
+        long nanos;
+
+        String report(String done) {
+            double seconds = nanos / 1e9;
+            long total = tasks + subtasks;
+            return String.format(Locale.ROOT, "- %s %d tasks and %d subtasks (%d deleted%s) in %.2f s, %.0f tasks/sec",
+                    done, tasks, subtasks, deleted, skipped > 0 ? ", " + skipped + " skipped" : "",
+                    seconds, seconds > 0 ? total / seconds : 0.0);
+        }
+    }
+
+    //экспорт
+
+    public static Stats export(TaskList list, Path file) throws IOException {
+        Format format = Format.of(file);
+        long started = System.nanoTime();
+        Stats stats = new Stats();
+
+        //удаленные подзадачи выписываются под узлом, из которого их удалили; корзина ограничена,
+        //поэтому ее можно разложить по id узлов заранее
+        HashMap<Long, ArrayList<TrashStore.Entry<TaskList.SubtaskArchive>>> archived = new HashMap<>();
+        for (int from = 0; ; from += PAGE) {
+            List<TrashStore.Entry<TaskList.SubtaskArchive>> page = list.deletedSubtaskPage(from, PAGE);
+            for (TrashStore.Entry<TaskList.SubtaskArchive> entry : page) {
+                archived.computeIfAbsent(entry.value.parentId, id -> new ArrayList<>()).add(entry);
+            }
+            if (page.size() < PAGE) break;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_CHARS)) {
+            if (format == Format.CSV) {
+                out.write(String.join(",", CSV_COLUMNS));
+                out.write('\n');
+            } else {
+                out.write('[');
+            }
+
+            int number = 0;
+            for (int from = 0; ; from += PAGE) {
+                List<BaseTask> page = list.page(TaskSorter.Order.PRIORITY, from, PAGE);
+                for (BaseTask task : page) {
+                    number++;
+                    writeTask(out, format, task, number, number, 0, archived, stats);
+                    stats.tasks++;
+                }
+                if (page.size() < PAGE) break;
+            }
+            for (int from = 0; ; from += PAGE) {
+                List<TrashStore.Entry<BaseTask>> page = list.deletedPage(from, PAGE);
+                for (TrashStore.Entry<BaseTask> entry : page) {
+                    number++;
+                    writeTask(out, format, entry.value, number, entry.value.getPriority(), entry.deletedAt, archived, stats);
+                    stats.deleted++;
+                }
+                if (page.size() < PAGE) break;
+            }
+
+            if (format == Format.JSON) out.write("\n]\n");
+        }
+
+        for (ArrayList<TrashStore.Entry<TaskList.SubtaskArchive>> orphans : archived.values()) {
+            stats.skipped += orphans.size();
+        }
+        stats.nanos = System.nanoTime() - started;
+        return stats;
+    }
+
+    private static void writeTask(Writer out, Format format, BaseTask task, int number, int priority, long deletedAt,
+                                  Map<Long, ArrayList<TrashStore.Entry<TaskList.SubtaskArchive>>> archived,
+                                  Stats stats) throws IOException {
+        if (format == Format.CSV) {
+            writeCsvNode(out, task, Integer.toString(number), deletedAt, archived, stats);
+        } else {
+            out.write(number > 1 ? ",\n" : "\n");
+            writeJsonNode(out, task, priority, deletedAt, archived, stats);
+        }
+    }
+
+    private static void writeJsonNode(Writer out, BaseTask node, int priority, long deletedAt,
+                                      Map<Long, ArrayList<TrashStore.Entry<TaskList.SubtaskArchive>>> archived,
+                                      Stats stats) throws IOException {
+        out.write("{\"description\":");
+        TaskHttpApi.writeString(out, node.description);
+        if (priority > 0) out.write(",\"priority\":" + priority);
+        out.write(",\"created\":" + node.getCreatedMillis());
+        if (deletedAt != 0) out.write(",\"deleted\":" + deletedAt);
+        if (node instanceof Task) {
+            Task task = (Task) node;
+            if (task.hasDeadline()) {
+                out.write(",\"deadline\":");
+                TaskHttpApi.writeString(out, task.getDeadline());
+            }
+            if (task.isDone()) out.write(",\"done\":true");
+
+            List<Task> subtasks = task.getSubtasks();
+            ArrayList<TrashStore.Entry<TaskList.SubtaskArchive>> removed = archived.remove(task.getId());
+            if (!subtasks.isEmpty() || removed != null) {
+                out.write(",\"subtasks\":[");
+                boolean first = true;
+                for (Task subtask : subtasks) {
+                    if (!first) out.write(',');
+                    first = false;
+                    writeJsonNode(out, subtask, 0, 0, archived, stats);
+                    stats.subtasks++;
+                }
+                if (removed != null) {
+                    for (TrashStore.Entry<TaskList.SubtaskArchive> entry : removed) {
+                        if (!first) out.write(',');
+                        first = false;
+                        writeJsonNode(out, entry.value.subtask, 0, entry.deletedAt, archived, stats);
+                        stats.subtasks++;
+                        stats.deleted++;
+                    }
+                }
+                out.write(']');
+            }
+        }
+        out.write('}');
+    }
+
+    private static void writeCsvNode(Writer out, BaseTask node, String path, long deletedAt,
+                                     Map<Long, ArrayList<TrashStore.Entry<TaskList.SubtaskArchive>>> archived,
+                                     Stats stats) throws IOException {
+        Task task = node instanceof Task ? (Task) node : null;
+        out.write(path);
+        out.write(',');
+        writeCsvField(out, node.description);
+        out.write(',');
+        out.write(Long.toString(node.getCreatedMillis()));
+        out.write(',');
+        if (task != null && task.hasDeadline()) writeCsvField(out, task.getDeadline());
+        out.write(',');
+        if (task != null && task.isDone()) out.write("true");
+        out.write(',');
+        if (deletedAt != 0) out.write(Long.toString(deletedAt));
+        out.write('\n');
+        if (task == null) return;
+
+        List<Task> subtasks = task.getSubtasks();
+        for (int i = 0; i < subtasks.size(); i++) {
+            writeCsvNode(out, subtasks.get(i), path + '.' + (i + 1), 0, archived, stats);
+            stats.subtasks++;
+        }
+        ArrayList<TrashStore.Entry<TaskList.SubtaskArchive>> removed = archived.remove(task.getId());
+        if (removed == null) return;
+        for (int i = 0; i < removed.size(); i++) {
+            TrashStore.Entry<TaskList.SubtaskArchive> entry = removed.get(i);
+            writeCsvNode(out, entry.value.subtask, path + '.' + (subtasks.size() + i + 1), entry.deletedAt, archived, stats);
+            stats.subtasks++;
+            stats.deleted++;
+        }
+    }
+
+    private static void writeCsvField(Writer out, String value) throws IOException {
+        boolean quote = value.isEmpty() ? false : value.charAt(0) == ' ' || value.charAt(value.length() - 1) == ' ';
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') out.write('"');
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    //импорт
+
+    //задачи уходят в список пачками по мере чтения; если файл испорчен, все прочитанное до ошибки
+    //остается в списке, а IllegalArgumentException говорит, в какой строке ошибка
+    public static Stats importFrom(TaskList list, Path file) throws IOException {
+        Format format = Format.of(file);
+        long started = System.nanoTime();
+        Batch batch = new Batch(list);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             Reader in = Channels.newReader(channel, StandardCharsets.UTF_8)) {
+            Input input = new Input(in);
+            try {
+                if (format == Format.CSV) {
+                    readCsv(input, batch);
+                } else {
+                    readJson(input, batch);
+                }
+            } catch (IllegalArgumentException e) {
+                long line = format == Format.CSV ? input.recordLine : input.line;
+                throw new IllegalArgumentException("line " + line + ": " + e.getMessage(), e);
+            }
+        } finally {
+            batch.flush();
+        }
+        batch.stats.nanos = System.nanoTime() - started;
+        return batch.stats;
+    }
+
+    //прочитанные задачи копятся до BATCH_TASKS задач или BATCH_NODES узлов и уходят в список одним вызовом
+    private static class Batch {
+        final TaskList list;
+        final Stats stats = new Stats();
+        final ArrayList<Node> tasks = new ArrayList<>();
+        int nodes;
+
+        Batch(TaskList list) {
+            this.list = list;
+        }
+
+        void add(Node task) {
+            tasks.add(task);
+            nodes += count(task, true);
+            if (tasks.size() >= BATCH_TASKS || nodes >= BATCH_NODES) flush();
+        }
+
+        private int count(Node node, boolean top) {
+            if (top) {
+                if (node.deletedAt != 0) stats.deleted++;
+                else stats.tasks++;
+            } else {
+                stats.subtasks++;
+                if (node.deletedAt != 0) stats.deleted++;
+            }
+            int size = 1;
+            for (Node subtask : node.subtasks) {
+                size += count(subtask, false);
+            }
+            return size;
+        }
+
+        void flush() {
+            if (tasks.isEmpty()) return;
+            list.importTasks(tasks);
+            tasks.clear();
+            nodes = 0;
+        }
+    }
+
+    //проверки те же, что при вводе с консоли
+    private static void check(Node node, boolean top) {
+        if (node.description == null) throw new IllegalArgumentException("task without description");
+        node.description = node.description.trim();
+        String error = ToDo.checkText(node.description, top ? ToDo.DESCRIPTION_MAX_LENGTH : ToDo.SUBTASK_MAX_LENGTH);
+        if (error != null) throw new IllegalArgumentException("description " + error);
+        if (!node.deadline.isEmpty()) {
+            node.deadlineMillis = Deadlines.parse(node.deadline);
+            if (node.deadlineMillis == Deadlines.NONE) {
+                throw new IllegalArgumentException("cannot read deadline " + node.deadline + ", use: " + Deadlines.FORMATS_HINT);
+            }
+        }
+    }
+
+    //мс от эпохи или дата в одном из форматов дедлайна
+    private static long parseTime(String text, String field) {
+        String value = text.trim();
+        boolean digits = !value.isEmpty();
+        for (int i = 0; i < value.length() && digits; i++) {
+            digits = value.charAt(i) >= '0' && value.charAt(i) <= '9';
+        }
+        if (digits) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(field + " is too big: " + value);
+            }
+        }
+        long millis = Deadlines.parse(value);
+        if (millis == Deadlines.NONE) throw new IllegalArgumentException("cannot read " + field + ": " + text);
+        return millis;
+    }
+
+    private static boolean parseBoolean(String text) {
+        switch (text.trim()) {
+            case "true": case "yes": case "1": return true;
+            case "false": case "no": case "0": case "": return false;
+            default: throw new IllegalArgumentException("done must be true or false, got: " + text);
+        }
+    }
+
+    private static void readCsv(Input in, Batch batch) throws IOException {
+        ArrayList<String> fields = new ArrayList<>();
+        if (!in.readCsvRecord(fields)) return; //пустой файл
+        int[] columns = new int[CSV_COLUMNS.length];
+        Arrays.fill(columns, -1);
+        for (int i = 0; i < fields.size(); i++) {
+            int column = Arrays.asList(CSV_COLUMNS).indexOf(fields.get(i).trim().toLowerCase(Locale.ROOT));
+            if (column != -1) columns[column] = i;
+        }
+        if (columns[0] == -1 || columns[1] == -1) throw new IllegalArgumentException("the header must have path and description columns");
+
+        //узлы от текущей задачи до последней прочитанной строки: новая строка становится ребенком узла своей глубины
+        ArrayList<Node> branch = new ArrayList<>();
+        ArrayList<String> paths = new ArrayList<>(); //пути узлов branch, как они записаны в файле
+        while (in.readCsvRecord(fields)) {
+            if (fields.size() == 1 && fields.get(0).isEmpty()) continue;
+            String path = field(fields, columns[0]);
+            int depth = 1;
+            for (int i = 0; i < path.length(); i++) {
+                if (path.charAt(i) == '.') depth++;
+            }
+            if (path.isEmpty() || depth > branch.size() + 1) {
+                throw new IllegalArgumentException("path " + path + " has no parent row above it");
+            }
+            if (depth > MAX_DEPTH) throw new IllegalArgumentException("subtasks are nested deeper than " + MAX_DEPTH);
+            //строки идут в глубину: путь подзадачи без последнего номера - путь ее узла строкой выше
+            if (depth > 1 && !path.substring(0, path.lastIndexOf('.')).equals(paths.get(depth - 2))) {
+                throw new IllegalArgumentException("path " + path + " does not follow its parent");
+            }
+
+            Node node = new Node();
+            node.description = field(fields, columns[1]);
+            String created = field(fields, columns[2]);
+            node.createdMillis = created.isEmpty() ? System.currentTimeMillis() : parseTime(created, "created");
+            node.deadline = field(fields, columns[3]).trim();
+            node.done = parseBoolean(field(fields, columns[4]));
+            String deleted = field(fields, columns[5]);
+            node.deletedAt = deleted.isEmpty() ? 0 : parseTime(deleted, "deleted");
+            check(node, depth == 1);
+
+            if (depth == 1) {
+                if (!branch.isEmpty()) batch.add(branch.get(0));
+                branch.clear();
+                paths.clear();
+            } else {
+                branch.subList(depth - 1, branch.size()).clear();
+                paths.subList(depth - 1, paths.size()).clear();
+                branch.get(depth - 2).subtasks.add(node);
+            }
+            branch.add(node);
+            paths.add(path);
+        }
+        if (!branch.isEmpty()) batch.add(branch.get(0));
+    }
+
+    private static String field(ArrayList<String> fields, int column) {
+        return column >= 0 && column < fields.size() ? fields.get(column) : "";
+    }
+
+    private static void readJson(Input in, Batch batch) throws IOException {
+        in.expect('[');
+        if (in.peek() == ']') {
+            in.next();
+        } else {
+            do {
+                batch.add(readJsonNode(in, 1));
+            } while (in.skip(','));
+            in.expect(']');
+        }
+        if (in.peek() != -1) throw new IllegalArgumentException("text after the end of the array");
+    }
+
+    private static Node readJsonNode(Input in, int depth) throws IOException {
+        if (depth > MAX_DEPTH) throw new IllegalArgumentException("subtasks are nested deeper than " + MAX_DEPTH);
+        Node node = new Node();
+        node.createdMillis = Long.MIN_VALUE;
+        in.expect('{');
+        if (!in.skip('}')) {
+            do {
+                String name = in.readString();
+                in.expect(':');
+                switch (name) {
+                    case "description":
+                        node.description = in.readString();
+                        break;
+                    case "created":
+                        node.createdMillis = parseTime(in.readScalar(), "created");
+                        break;
+                    case "deadline": {
+                        String deadline = in.peek() == '"' ? in.readString() : in.readScalar();
+                        node.deadline = deadline.equals("null") ? "" : deadline.trim();
+                        break;
+                    }
+                    case "done":
+                        node.done = parseBoolean(in.readScalar());
+                        break;
+                    case "deleted":
+                        node.deletedAt = parseTime(in.readScalar(), "deleted");
+                        break;
+                    case "subtasks":
+                        in.expect('[');
+                        if (!in.skip(']')) {
+                            do {
+                                node.subtasks.add(readJsonNode(in, depth + 1));
+                            } while (in.skip(','));
+                            in.expect(']');
+                        }
+                        break;
+                    default:
+                        in.skipValue(); //id, number, priority и итоги из вывода HTTP
+                }
+            } while (in.skip(','));
+            in.expect('}');
+        }
+        if (node.createdMillis == Long.MIN_VALUE) node.createdMillis = System.currentTimeMillis();
+        check(node, depth == 1);
+        return node;
+    }
+
+    //чтение текста своим буфером: разбор по символу без лишних вызовов Reader, с номером строки для ошибок
+    private static class Input {
+        private final Reader in;
+        private final char[] buffer = new char[BUFFER_CHARS];
+        private int position;
+        private int limit;
+        private final StringBuilder text = new StringBuilder();
+        long line = 1;
+        long recordLine; //строка, с которой началась последняя запись CSV
+
+        Input(Reader in) {
+            this.in = in;
+        }
+
+        //следующий символ без пробелов перед ним, -1 в конце текста
+        int peek() throws IOException {
+            while (true) {
+                if (position == limit && !fill()) return -1;
+                char c = buffer[position];
+                if (!Character.isWhitespace(c)) return c;
+                if (c == '\n') line++;
+                position++;
+            }
+        }
+
+        int next() throws IOException {
+            if (position == limit && !fill()) return -1;
+            char c = buffer[position++];
+            if (c == '\n') line++;
+            return c;
+        }
+
+        private boolean fill() throws IOException {
+            int read = in.read(buffer, 0, buffer.length);
+            if (read <= 0) return false;
+            position = 0;
+            limit = read;
+            return true;
+        }
+
+        void expect(char expected) throws IOException {
+            int c = peek();
+            if (c != expected) {
+                throw new IllegalArgumentException("expected " + expected + ", got " + (c == -1 ? "end of file" : "" + (char) c));
+            }
+            position++;
+        }
+
+        //пропускает символ, если он следующий
+        boolean skip(char expected) throws IOException {
+            if (peek() != expected) return false;
+            position++;
+            return true;
+        }
+
+        String readString() throws IOException {
+            expect('"');
+            text.setLength(0);
+            while (true) {
+                int c = next();
+                if (c == -1) throw new IllegalArgumentException("unterminated string");
+                if (c == '"') return text.toString();
+                if (c != '\\') {
+                    text.append((char) c);
+                    continue;
+                }
+                int escaped = next();
+                switch (escaped) {
+                    case 'n': text.append('\n'); break;
+                    case 'r': text.append('\r'); break;
+                    case 't': text.append('\t'); break;
+                    case 'b': text.append('\b'); break;
+                    case 'f': text.append('\f'); break;
+                    case 'u': {
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(next(), 16);
+                            if (digit < 0) throw new IllegalArgumentException("broken \\u escape");
+                            code = code * 16 + digit;
+                        }
+                        text.append((char) code);
+                        break;
+                    }
+                    case -1: throw new IllegalArgumentException("unterminated string");
+                    default: text.append((char) escaped);
+                }
+            }
+        }
+
+        //число, true/false или null - как текст
+        String readScalar() throws IOException {
+            if (peek() == '"') return readString();
+            text.setLength(0);
+            while (position < limit || fill()) {
+                char c = buffer[position];
+                if (c != '+' && c != '-' && c != '.' && !Character.isLetterOrDigit(c)) break;
+                text.append(c);
+                position++;
+            }
+            if (text.length() == 0) throw new IllegalArgumentException("expected a value");
+            return text.toString();
+        }
+
+        void skipValue() throws IOException {
+            int c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                position++;
+                if (skip(close)) return;
+                do {
+                    if (close == '}') {
+                        readString();
+                        expect(':');
+                    }
+                    skipValue();
+                } while (skip(','));
+                expect(close);
+            } else {
+                readScalar();
+            }
+        }
+
+        //одна запись CSV (RFC 4180): поля в кавычках могут содержать запятые, кавычки ("") и переводы строк;
+        //false в конце файла
+        boolean readCsvRecord(ArrayList<String> fields) throws IOException {
+            fields.clear();
+            if (position == limit && !fill()) return false;
+            recordLine = line;
+            text.setLength(0);
+            boolean quoted = false;
+            while (true) {
+                int c = next();
+                if (quoted) {
+                    if (c == -1) throw new IllegalArgumentException("unterminated quoted field");
+                    if (c == '"') {
+                        if (position == limit && !fill() || buffer[position] != '"') {
+                            quoted = false;
+                            continue;
+                        }
+                        position++;
+                    }
+                    text.append((char) c);
+                } else if (c == '"' && text.length() == 0) {
+                    quoted = true;
+                } else if (c != ',' && c != '\n' && c != -1) {
+                    //обычное поле копируется из буфера куском до запятой или конца строки
+                    text.append((char) c);
+                    int start = position;
+                    while (position < limit && buffer[position] != ',' && buffer[position] != '\n') {
+                        position++;
+                    }
+                    text.append(buffer, start, position - start);
+                } else if (c == ',') {
+                    fields.add(text.toString());
+                    text.setLength(0);
+                } else { //конец строки или файла
+                    int end = text.length();
+                    if (end > 0 && text.charAt(end - 1) == '\r') text.setLength(end - 1);
+                    fields.add(text.toString());
+                    return true;
+                }
+            }
+        }
+    }
+}
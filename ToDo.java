@@ -1,115 +1,301 @@
+import java.io.FilterInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
-import java.time.LocalDateTime;
+import java.util.function.IntConsumer;
+import javax.management.JMException;
 
-class BaseTask {
-    protected String description;
-    protected LocalDateTime createdDate;
-    protected int priority;
+public class ToDo {
+    private static final String DATA_DIR = "todo-data";
+    private static final int MAX_RESIDENT_WORKSPACES = 64;
+    private static final long MAX_RESIDENT_WORKSPACE_TASKS = 2_000_000;
+    private static final double WORKSPACE_HEAP_FRACTION = 0.8;
+    private static final long JMX_DELAY_MILLIS = 1000;
+    private static final long REMINDER_LEAD_MILLIS = 15 * 60_000; //напоминание "скоро дедлайн" - за 15 минут
+    private static final int REMINDERS_SHOWN = 10; //столько напоминаний за раз печатается в консоль по одному
+    private static final int RECENT_REMINDERS = 1000; //столько последних напоминаний отдает GET /reminders
+
+    private TaskList list = new TaskList();
+    //именованные списки для HTTP, создаются только в режиме --http; список по умолчанию - list, он всегда в памяти
+    private Workspaces workspaces;
+    //консоль нужна только меню: Scanner тянет за собой regex и локали, а пакетному режиму и запросам они ни к чему
+    private TimedInput input;
+    private Scanner scan;
+    private TaskRenderer renderer = new TaskRenderer(System.out);
+    private Metrics metrics = new Metrics()
+            .gauge("tasks", list::size)
+            .gauge("deletedTasks", list::getDeletedCount)
+            .gauge("deletedSubtasks", list::getDeletedSubtaskCount)
+            .gauge("subtasks", list::getSubtaskCount)
+            .gauge("subtasksPerTask", () -> list.isEmpty() ? 0.0 : (double) list.getSubtaskCount() / list.size())
+            .gauge("heapUsedBytes", () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory())
+            .gauge("reminders", list::getReminderCount);
+
+    //имена пунктов меню для метрик, по номеру пункта
+    private static final String[] MENU_COMMANDS = { null, "add", "edit", "delete", "deadline", "subtask",
+            "delete-subtask", "priority", "sort-dates", "sort-priority", "search", "show", "show-deleted",
+            "restore", "restore-subtask", "deadlines", "sort-description", "done", "show-task", "import", "export",
+            "undo", "redo", "metrics", "exit" };
+
+    private static final int DEFAULT_FIRST_PRIORITY = TaskList.FIRST_PRIORITY;
+    private static final int PAGE_SIZE = 20;
+    static final int DESCRIPTION_MAX_LENGTH = 500;
+    static final int SUBTASK_MAX_LENGTH = 200;
+    static final int DEADLINE_MAX_LENGTH = 100;
+    static final int SEARCH_MAX_LENGTH = 50;
+    static final int FILE_NAME_MAX_LENGTH = 260;
+
+    //страница списка: не больше count задач начиная с позиции from
+    private interface PageSource {
+        List<BaseTask> page(int from, int count);
+    }
 
-    public BaseTask(String description, int priority) {
-        this.description = description;
-        this.createdDate = LocalDateTime.now();
-        this.priority = priority;
+    //правка узла: позиция задачи и путь позиций к подзадаче под ней (пустой - сама задача)
+    private interface NodeChange {
+        void apply(int index, int[] path);
     }
 
-    public LocalDateTime getCreatedDate() { return createdDate; }
-    public int getPriority() { return priority; }
-    public void setDescription(String description) { this.description = description; }
-    public void setPriority(int priority) { this.priority = priority; }
-    public String toString() { return description; }
+    //ввод с консоли, который считает время ожидания пользователя - в задержку команд меню оно не входит
+    private static class TimedInput extends FilterInputStream {
+        private long waitedNanos; //читает только поток меню
 
-}
+        TimedInput(InputStream in) {
+            super(in);
+        }
 
-class Task extends BaseTask {
-    private String deadline;
-    private ArrayList<String> subtasks;
+        long getWaitedNanos() { return waitedNanos; }
 
-    public Task(String description, int priority) {
-        super(description, priority);
-        this.deadline = "";
-        this.subtasks = new ArrayList<>();
+        public int read() throws IOException {
+            long started = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                waitedNanos += System.nanoTime() - started;
+            }
+        }
+
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long started = System.nanoTime();
+            try {
+                return super.read(buffer, offset, length);
+            } finally {
+                waitedNanos += System.nanoTime() - started;
+            }
+        }
     }
 
-    public ArrayList<String> getSubtasks() { return subtasks; }
+    //напоминания о дедлайнах в консоль, между строками меню; если их сразу много (например, просроченные
+    //при запуске) - первые REMINDERS_SHOWN и сколько еще
+    private static class ConsoleReminders implements DeadlineReminders.Sink {
+        private final DeadlineReminders.Sink next; //null или куда еще отдать напоминания после консоли
 
-    public void setDeadline(String deadline) { this.deadline = deadline; }
-    public void addSubtask(String subtask) {
-        if (subtask != null && !subtask.trim().isEmpty()) {
-            subtasks.add(subtask);
+        ConsoleReminders(DeadlineReminders.Sink next) {
+            this.next = next;
+        }
+
+        public void failed(RuntimeException e) {
+            warn("cannot deliver reminders: " + e.getMessage());
+        }
+
+        public void remind(List<DeadlineReminders.Notice> notices) {
+            StringBuilder out = new StringBuilder();
+            int shown = Math.min(notices.size(), REMINDERS_SHOWN);
+            for (DeadlineReminders.Notice notice : notices.subList(0, shown)) {
+                String deadline = ((Task) notice.task).getDeadline();
+                out.append("! ").append(notice.task.description).append(" [id: #").append(notice.task.getId()).append("] ");
+                switch (notice.kind) {
+                    case UPCOMING:
+                        long minutes = Math.max(1, (notice.deadlineMillis - notice.firedAt + 59_999) / 60_000);
+                        out.append("is due in ").append(minutes).append(" min (").append(deadline).append(')');
+                        break;
+                    case DUE:
+                        out.append("is due now (").append(deadline).append(')');
+                        break;
+                    default:
+                        out.append("is overdue since ").append(deadline);
+                }
+                out.append(System.lineSeparator());
+            }
+            if (notices.size() > shown) {
+                out.append("! and ").append(notices.size() - shown).append(" more - see \"show tasks by deadline\"")
+                        .append(System.lineSeparator());
+            }
+            System.out.print(out);
+            if (next != null) next.remind(notices);
         }
     }
-    public void removeSubtask(int index) {
-        if (index >= 0 && index < subtasks.size()) {
-            subtasks.remove(index);
+
+    //фоновые ошибки (снимок, выгрузка списка, напоминания, JMX) идут в stderr, чтобы не вклиниваться в меню и вывод HTTP
+    private static void warn(String message) {
+        System.err.println(message);
+    }
+
+    private boolean isListEmpty() {
+        if (list.isEmpty()) {
+            System.out.println("first of all, your list is empty...");
+            return true;
         }
+        return false;
     }
 
-    public String toString() {
-        String result = description;
-        if (!deadline.isEmpty()) {
-            result += " ----------------- until:" + deadline;
+    private boolean isValidIndex(int number, int max) {
+        if (number < 1 || number > max) {
+            System.out.println("enter a CORRECT number please (1 - " + max + ")");
+            return false;
         }
-        return result;
+        return true;
     }
 
-}
+    private boolean isValidIndex(int number) { return isValidIndex(number, list.size()); }
 
-class TaskSorter {
-    //сортировки с помощью сравнений через лямбда выражения
-    public static void sortByPriority(ArrayList<BaseTask> tasks) {
-        tasks.sort((t1, t2) -> Integer.compare(t1.getPriority(), t2.getPriority()));
+    //задача или подзадача: 3, 3.1.2 или #12.1 - первый номер (или id) это задача, дальше путь по подзадачам;
+    //возвращает {позиция задачи с 0, путь с 0...}, null при ошибке ввода (сообщение уже напечатано)
+    private int[] readNodeRef() {
+        String input = scan.nextLine().trim();
+        try {
+            return requireNode(input);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return null;
+        }
     }
 
-    public static void sortByDate(ArrayList<BaseTask> tasks) {
-        tasks.sort((t1, t2) -> t1.getCreatedDate().compareTo(t2.getCreatedDate()));
+    private int[] requireNode(String ref) {
+        String[] parts = ref.split("\\.");
+        int[] path = requirePath(parts);
+        int index = requireTaskIndex(parts[0]);
+        checkNode(ref, index, path);
+        int[] node = new int[parts.length];
+        node[0] = index;
+        System.arraycopy(path, 0, node, 1, path.length);
+        return node;
     }
-}
-
-public class ToDo {
-    private ArrayList<BaseTask> tasks = new ArrayList<>();
-    private ArrayList<BaseTask> deletedTasks = new ArrayList<>();
-    private Scanner scan = new Scanner(System.in);
 
-    private static final int DEFAULT_FIRST_PRIORITY = 1;
-    private static final int MAX_TASKS = 200;
+    //узел по ссылке вида 3.1.2 или #12.1: для id и поиск задачи, и проверка узла идут под той же блокировкой, что и правка
+    private void atNode(String ref, NodeChange change) {
+        String[] parts = ref.split("\\.");
+        int[] path = requirePath(parts);
+        atTask(parts[0], index -> {
+            checkNode(ref, index, path);
+            change.apply(index, path);
+        });
+    }
 
-    private class SubtaskArchive {
-        int taskIndex;
-        String subtask;
+    //номера подзадач после номера задачи -> позиции с нуля
+    private static int[] requirePath(String[] parts) {
+        int[] path = new int[parts.length - 1];
+        for (int i = 1; i < parts.length; i++) {
+            path[i - 1] = requireNumber(parts[i], Integer.MAX_VALUE) - 1;
+        }
+        return path;
+    }
 
-        SubtaskArchive(int taskIndex, String subtask) {
-            this.taskIndex = taskIndex;
-            this.subtask = subtask;
+    //задача должна уметь хранить дедлайн и подзадачи, а подзадача по пути - существовать
+    private void checkNode(String ref, int index, int[] path) {
+        if (getTaskAsTask(index) == null) {
+            throw new IllegalArgumentException("task " + ref.split("\\.")[0] + " cannot have subtasks or deadline");
+        }
+        try {
+            list.getSubtask(index, path);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("no such subtask: " + ref + " (" + e.getMessage() + ")");
         }
     }
 
-    private ArrayList<SubtaskArchive> deletedSubtasks = new ArrayList<>();
+    //правка задачи по ссылке: #12 находится в позицию под той же блокировкой, что и правка (TaskList.updateById),
+    //так что задача, которую в это время переставил или удалил другой клиент, не подменится соседней
+    private void atTask(String ref, IntConsumer change) {
+        long id = parseTaskId(ref);
+        if (id == 0) {
+            change.accept(requireTaskIndex(ref));
+        } else {
+            atTask(id, change);
+        }
+    }
 
-    private boolean isListEmpty() {
-        if (tasks.isEmpty()) {
-            System.out.println("first of all, your list is empty...");
-            return true;
+    private void atTask(long id, IntConsumer change) {
+        try {
+            list.updateById(id, index -> {
+                change.accept(index);
+                return null;
+            });
+        } catch (NoSuchElementException e) {
+            throw new IllegalArgumentException(e.getMessage());
         }
-        return false;
     }
 
-    private boolean isValidIndex(int number, int max) {
-        if (number < 1 || number > max) {
-            System.out.println("enter a CORRECT number please (1 - " + max + ")");
+    //правка задачи, которую пользователь уже выбрал и видел: правится именно она, где бы она теперь ни стояла;
+    //false (сообщение уже напечатано), если ее за это время удалили
+    private boolean changeTask(long id, IntConsumer change) {
+        try {
+            atTask(id, change);
+            return true;
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
             return false;
         }
-        return true;
     }
 
-    private boolean isValidIndex(int number) { return isValidIndex(number, tasks.size()); }
+    private static int[] pathOf(int[] node) { return Arrays.copyOfRange(node, 1, node.length); }
 
-    private boolean isValidSubtaskIndex(int taskIndex, int subtaskNumber) {
-        BaseTask baseTask = tasks.get(taskIndex);
-        if (!(baseTask instanceof Task)) return false; //проверка можно ли у задачи брать подзадачи
+    //задачу можно указать позицией или стабильным id (#12), который не меняется при перестановках;
+    //возвращает позицию с 1, -1 при ошибке ввода (сообщение уже напечатано)
+    private int readTaskRef() {
+        String input = scan.nextLine().trim();
+        try {
+            return resolveTaskRef(input);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return -1;
+        }
+    }
 
-        Task task = (Task) baseTask;
-        return isValidIndex(subtaskNumber, task.getSubtasks().size());
+    //#12 (или id:12) -> текущая позиция задачи с этим id, иначе текст - сама позиция; проверку диапазона делает вызывающий
+    private int resolveTaskRef(String ref) {
+        long id = parseTaskId(ref);
+        if (id != 0) {
+            int index = list.indexOf(id);
+            if (index == -1) throw new IllegalArgumentException("no task with id " + id + " in the list");
+            return index + 1;
+        }
+        try {
+            return Integer.parseInt(ref);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("enter a NUMBER (or an id like #12) please, got: " + ref);
+        }
+    }
+
+    //id задачи из ссылки вида #12 или id:12; 0 если это не id
+    static long parseTaskId(String ref) {
+        String text = ref.trim();
+        String digits;
+        if (text.startsWith("#")) {
+            digits = text.substring(1);
+        } else if (text.startsWith("id:")) {
+            digits = text.substring(3);
+        } else {
+            return 0;
+        }
+        try {
+            long id = Long.parseLong(digits.trim());
+            if (id < 1) throw new IllegalArgumentException("ids start from 1, got: " + ref);
+            return id;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("enter an id like #12, got: " + ref);
+        }
     }
 
     private int readTaskNumber() {
@@ -124,67 +310,410 @@ public class ToDo {
         }
     }
 
-    private String readInputWithValidation(String prompt, int maxLength) {
-        System.out.println(prompt);
+    //читает один или несколько номеров задач через запятую, повторы отбрасываются
+    private ArrayList<BaseTask> readTaskList() {
         String input = scan.nextLine().trim();
+        ArrayList<BaseTask> selected = new ArrayList<>();
+        HashSet<BaseTask> seen = new HashSet<>();
 
-        if (input.isEmpty()) {
-            System.out.println("cannot be empty");
+        try {
+            for (String part : input.split(",")) {
+                int number = resolveTaskRef(part.trim());
+                if (!isValidIndex(number)) return null;
+
+                BaseTask task = list.get(number - 1);
+                if (seen.add(task)) {
+                    selected.add(task);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage() + " (or several, like: 1,4,#7)");
             return null;
         }
+        return selected;
+    }
 
-        if (input.length() > maxLength) {
-            System.out.println("too long! maximum " + maxLength + " characters");
+    private String readInputWithValidation(String prompt, int maxLength) {
+        System.out.println(prompt);
+        String input = scan.nextLine().trim();
+
+        String error = checkText(input, maxLength);
+        if (error != null) {
+            System.out.println(error);
             return null;
         }
 
         return input;
     }
 
+    //общая проверка текста для меню, пакетного режима и HTTP: null если все хорошо, иначе текст ошибки
+    static String checkText(String input, int maxLength) {
+        if (input.isEmpty()) {
+            return "cannot be empty";
+        }
+        if (input.length() > maxLength) {
+            return "too long! maximum " + maxLength + " characters";
+        }
+        return null;
+    }
+
     private Task getTaskAsTask(int index) {
-        BaseTask baseTask = tasks.get(index);
-        return (baseTask instanceof Task) ? (Task) baseTask : null; //преобразуем BaseTask в Task чтобы получить доступ к специальным методам
+        return list.getTask(index); //null если у задачи нет специальных методов Task
+    }
+
+    //показывает список страницами по PAGE_SIZE; дальше можно попросить любой диапазон N-M
+    private void displayTasks(PageSource pages, int total, boolean showDates) {
+        int from = 0;
+        int count = PAGE_SIZE;
+        while (true) {
+            int shown = renderer.renderList(pages.page(from, count).iterator(), from + 1, count, showDates);
+            if (from == 0 && shown == total) return; //весь список поместился
+
+            System.out.println("- shown " + (from + 1) + "-" + (from + shown) + " of " + total
+                    + ". enter a range to show (like: 21-40) or press enter to go back:");
+            String input = scan.nextLine().trim();
+            if (input.isEmpty()) return;
+
+            try {
+                String[] parts = input.split("-");
+                int first = Integer.parseInt(parts[0].trim());
+                int last = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : first + PAGE_SIZE - 1;
+                if (parts.length > 2 || !isValidIndex(first, total) || last < first) {
+                    System.out.println("enter correct range (like: 21-40)");
+                    continue;
+                }
+                from = first - 1;
+                count = Math.min(last, total) - from;
+            } catch (NumberFormatException e) {
+                System.out.println("enter correct range (like: 21-40)");
+            }
+        }
+    }
+
+    //после правки показываем только затронутую задачу, а не весь список
+    //подзадачи раскрываются на всю глубину: это одна задача, а в списках - только первый уровень
+    private void displayTask(BaseTask task) {
+        renderer.appendTask(task, task.getPriority(), false, Integer.MAX_VALUE).flush();
+    }
+
+    //задача мэйна - запуск приложения
+    //java ToDo - меню; java ToDo --batch <файл> (или "-" для stdin) - выполнить команды из скрипта;
+    //java ToDo --http <порт> [<адрес>] - HTTP/JSON API (см. TaskHttpApi) со списком по умолчанию и именованными списками
+    //в todo-data/workspaces (см. Workspaces), работает до остановки процесса; без адреса слушает только localhost;
+    //java ToDo --import <файл> / --export <файл> - весь список из файла или в файл .csv или .json (см. TaskTransfer);
+    //java ToDo --show [<n>] - страница списка с задачи n; java ToDo --query <текст> - задачи, в описании которых есть текст;
+    //в меню и HTTP в консоль приходят напоминания о дедлайнах задач (см. DeadlineReminders), в HTTP - и в GET /reminders;
+    //в меню, пакетном режиме и HTTP метрики доступны по JMX (jconsole, todo:type=Metrics) через секунду после запуска
+    //
+    //запуск сам по себе легкий: снимок читается лениво, консоль, JMX, именованные списки и файлы вытеснения
+    //создаются, только когда они нужны; еще быстрее - с архивом классов CDS (mvn -P cds package, см. README)
+    public static void main(String[] args) {
+        ToDo todoApp = new ToDo();
+        todoApp.openStorage(Paths.get(DATA_DIR), false);
+        Runtime.getRuntime().addShutdownHook(new Thread(todoApp::closeStorage));
+
+        if (args.length >= 1 && (args[0].equals("--show") || args[0].equals("--query"))) {
+            try {
+                todoApp.runCommand(args[0].substring(2), String.join(" ", Arrays.asList(args).subList(1, args.length)));
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+            todoApp.closeStorage();
+            return;
+        }
+        if (args.length == 2 && args[0].equals("--batch")) {
+            todoApp.registerMetricsLater();
+            try (BufferedReader script = args[1].equals("-")
+                    ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16)
+                    : Files.newBufferedReader(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+                todoApp.runBatch(script);
+            } catch (IOException e) {
+                System.out.println("cannot read the script: " + e.getMessage());
+            }
+            todoApp.closeStorage();
+            return;
+        }
+        if (args.length == 2 && (args[0].equals("--import") || args[0].equals("--export"))) {
+            try {
+                System.out.println(todoApp.transfer(args[0].equals("--import"), args[1]));
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            }
+            todoApp.closeStorage();
+            return;
+        }
+        if ((args.length == 2 || args.length == 3) && args[0].equals("--http")) {
+            todoApp.openWorkspaces();
+            todoApp.registerMetricsLater();
+            DeadlineReminders.Recent recent = new DeadlineReminders.Recent(RECENT_REMINDERS);
+            todoApp.list.startReminders(REMINDER_LEAD_MILLIS, new ConsoleReminders(recent));
+            TaskHttpApi api = new TaskHttpApi(todoApp.list, todoApp.workspaces, recent, todoApp.metrics);
+            try {
+                api.start(args.length == 3 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress(),
+                        Integer.parseInt(args[1]));
+                System.out.println("- serving the list on " + api.getUrl() + "/tasks");
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("cannot start HTTP server: " + e.getMessage());
+                todoApp.closeStorage();
+            }
+            return;
+        }
+        todoApp.input = new TimedInput(System.in);
+        todoApp.scan = new Scanner(todoApp.input);
+        todoApp.registerMetricsLater();
+        todoApp.list.startReminders(REMINDER_LEAD_MILLIS, new ConsoleReminders(null));
+        todoApp.run();
+    }
+
+    //датчики именованных списков добавляются до того, как метрики начнут читать (JMX, HTTP)
+    private void openWorkspaces() {
+        workspaces = new Workspaces(Paths.get(DATA_DIR, "workspaces"), false,
+                MAX_RESIDENT_WORKSPACES, MAX_RESIDENT_WORKSPACE_TASKS);
+        workspaces.onWarning(ToDo::warn);
+        workspaces.watchHeap(WORKSPACE_HEAP_FRACTION);
+        metrics.gauge("workspacesResident", workspaces::residentCount)
+                .gauge("workspaceLoads", workspaces::loadCount)
+                .gauge("workspaceEvictions", workspaces::evictionCount);
+    }
+
+    //JMX - это сотни классов и заметная доля запуска, поэтому бин регистрируется в фоне и не сразу:
+    //короткий запуск к этому времени уже закончится, а подключиться jconsole все равно не успел бы
+    private void registerMetricsLater() {
+        Thread registration = new Thread(() -> {
+            try {
+                Thread.sleep(JMX_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                metrics.registerMBean();
+            } catch (JMException e) {
+                warn("metrics are not available over JMX: " + e.getMessage());
+            }
+        }, "todo-jmx");
+        registration.setDaemon(true);
+        registration.start();
+    }
+
+    //пакетный режим: строки вида "команда аргументы", проверки те же, что в меню, но между
+    //командами ничего не выводится - только ошибки и итог в конце
+    //add <текст> | edit <n> <текст> | delete <n> | deadline <n>[.<m>...] <дата> | subtask <n>[.<m>...] <текст>
+    //unsubtask <n>.<m>[.<m>...] | done <n>[.<m>...] | undone <n>[.<m>...]
+    //move <n>[,<n>...] <приоритет> | restore <id> | restore-subtask <id> | import <файл> | export <файл>
+    //undo [<сколько>] | redo [<сколько>] | show [<n>] | query <текст> | metrics
+    //вместо номера задачи <n> можно писать ее id: #12 (и #12.1 для подзадач)
+    //пустые строки и строки с # пропускаются
+    public void runBatch(BufferedReader script) throws IOException {
+        long started = System.nanoTime();
+        long lineNumber = 0;
+        long done = 0;
+        long failed = 0;
+
+        String line;
+        while ((line = script.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            try {
+                runCommand(line);
+                done++;
+            } catch (IllegalArgumentException e) {
+                failed++;
+                System.out.println("line " + lineNumber + ": " + e.getMessage());
+            }
+        }
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("- batch done: %d commands, %d failed, %.0f ops/sec%n",
+                done + failed, failed, (done + failed) / Math.max(seconds, 1e-9));
+    }
+
+    private void runCommand(String line) {
+        int space = line.indexOf(' ');
+        String command = space == -1 ? line : line.substring(0, space);
+        String arguments = space == -1 ? "" : line.substring(space + 1).trim();
+
+        Metrics.Sample sample = metrics.start();
+        runCommand(command, arguments);
+        sample.stop("batch." + command); //неизвестные команды и ошибки ввода сюда не доходят
     }
 
-    private void displayTasks(ArrayList<BaseTask> tasks, boolean showDates) {
-        for (int i = 0; i < tasks.size(); i++) {
-            BaseTask task = tasks.get(i);
-            String taskInfo = (i + 1) + "\\\\ " + task + " [priority: " + task.getPriority();
-            if (showDates) {
-                taskInfo += ", date: " + task.getCreatedDate().toLocalDate();
+    private void runCommand(String command, String arguments) {
+        switch (command) {
+            case "add":
+                requireText(arguments, DESCRIPTION_MAX_LENGTH);
+                list.insertTask(arguments, System.currentTimeMillis());
+                break;
+            case "edit": {
+                String[] parts = splitFirst(arguments);
+                requireText(parts[1], DESCRIPTION_MAX_LENGTH);
+                atTask(parts[0], index -> list.editDescription(index, parts[1]));
+                break;
+            }
+            case "delete":
+                atTask(arguments, list::removeTask);
+                break;
+            case "deadline": {
+                String[] parts = splitFirst(arguments);
+                requireText(parts[1], DEADLINE_MAX_LENGTH);
+                if (Deadlines.parse(parts[1]) == Deadlines.NONE) {
+                    throw new IllegalArgumentException("cannot read this date, use: " + Deadlines.FORMATS_HINT);
+                }
+                atNode(parts[0], (index, path) -> list.setDeadline(index, path, parts[1]));
+                break;
+            }
+            case "subtask": {
+                String[] parts = splitFirst(arguments);
+                requireText(parts[1], SUBTASK_MAX_LENGTH);
+                atNode(parts[0], (index, path) -> list.appendSubtask(index, path, parts[1]));
+                break;
+            }
+            case "unsubtask": {
+                if (!arguments.contains(".")) throw new IllegalArgumentException("enter correct format (like: 1.2 or 1.2.1)");
+                atNode(arguments, list::removeSubtask);
+                break;
+            }
+            case "done":
+            case "undone": {
+                boolean done = command.equals("done");
+                atNode(arguments, (index, path) -> list.setDone(index, path, done));
+                break;
+            }
+            case "move": {
+                String[] parts = splitFirst(arguments);
+                ArrayList<BaseTask> movedTasks = new ArrayList<>();
+                HashSet<BaseTask> seen = new HashSet<>();
+                for (String number : parts[0].split(",")) {
+                    BaseTask task = list.get(requireTaskIndex(number));
+                    if (seen.add(task)) movedTasks.add(task);
+                }
+                int index = requireNumber(parts[1], list.size() - movedTasks.size() + DEFAULT_FIRST_PRIORITY) - DEFAULT_FIRST_PRIORITY;
+                if (movedTasks.size() == 1) {
+                    atTask(movedTasks.get(0).getId(), from -> list.moveTask(from, index));
+                } else {
+                    list.moveTasks(movedTasks, index);
+                }
+                break;
             }
-            taskInfo += "]";
-            System.out.println(taskInfo);
-
-            if (task instanceof Task) {
-                Task concreteTask = (Task) task;
-                ArrayList<String> subtasks = concreteTask.getSubtasks();
-                if (!subtasks.isEmpty()) {
-                    for (int j = 0; j < subtasks.size(); j++) {
-                        System.out.println("   " + (i + 1) + "." + (j + 1) + " " + subtasks.get(j));
+            case "restore":
+                list.restoreArchivedTask(requireNumber(arguments, Integer.MAX_VALUE));
+                break;
+            case "restore-subtask":
+                if (list.restoreArchivedSubtask(requireNumber(arguments, Integer.MAX_VALUE)) == null) {
+                    throw new IllegalArgumentException("cannot restore subtask - original task is not in the list (restore the task first)");
+                }
+                break;
+            case "undo":
+            case "redo": {
+                int steps = arguments.isEmpty() ? 1 : requireNumber(arguments, Integer.MAX_VALUE);
+                for (int i = 0; i < steps; i++) {
+                    boolean done;
+                    try {
+                        done = command.equals("undo") ? list.undo() : list.redo();
+                    } catch (IllegalStateException e) {
+                        throw new IllegalArgumentException("cannot " + command + ": " + e.getMessage());
                     }
+                    if (!done) throw new IllegalArgumentException("nothing to " + command);
+                }
+                break;
+            }
+            case "show": {
+                int from = arguments.isEmpty() ? 0 : requireTaskIndex(arguments);
+                if (renderer.renderList(list.page(TaskSorter.Order.PRIORITY, from, PAGE_SIZE).iterator(),
+                        from + 1, PAGE_SIZE, false) == 0) {
+                    System.out.println("the list is empty");
                 }
+                break;
             }
+            case "query": {
+                requireText(arguments, SEARCH_MAX_LENGTH);
+                ArrayList<BaseTask> found = list.query(TaskFilter.text(arguments));
+                if (found.isEmpty()) {
+                    System.out.println("sorry, nothing containing \"" + arguments + "\" is found");
+                    break;
+                }
+                for (BaseTask task : found) {
+                    renderer.appendTask(task, task.getPriority(), false, true);
+                }
+                renderer.flush();
+                break;
+            }
+            case "import":
+            case "export":
+                if (arguments.isEmpty()) throw new IllegalArgumentException("enter the file name (like: tasks.csv)");
+                System.out.println(transfer(command.equals("import"), arguments));
+                break;
+            case "metrics":
+                System.out.print(metrics.dump());
+                break;
+            default:
+                throw new IllegalArgumentException("unknown command: " + command);
+        }
+    }
+
+    //импорт или экспорт всего списка; итог с числом задач в секунду, ошибки - IllegalArgumentException
+    private String transfer(boolean importing, String file) {
+        try {
+            Path path = Paths.get(file);
+            return importing ? TaskTransfer.importFrom(list, path).report("imported")
+                    : TaskTransfer.export(list, path).report("exported");
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot " + (importing ? "read " : "write ") + file + ": " + e, e);
+        } catch (InvalidPathException e) {
+            throw new IllegalArgumentException("wrong file name: " + file);
         }
     }
 
-    private void displaySubtasks(Task task, int taskNumber) {
-        ArrayList<String> subtasks = task.getSubtasks();
-        for (int j = 0; j < subtasks.size(); j++) {
-            System.out.println("   " + taskNumber + "." + (j + 1) + " " + subtasks.get(j));
+    private static String[] splitFirst(String arguments) {
+        int space = arguments.indexOf(' ');
+        if (space == -1) return new String[] { arguments, "" };
+        return new String[] { arguments.substring(0, space), arguments.substring(space + 1).trim() };
+    }
+
+    private static void requireText(String text, int maxLength) {
+        String error = checkText(text, maxLength);
+        if (error != null) throw new IllegalArgumentException(error);
+    }
+
+    private static int requireNumber(String text, int max) {
+        int number;
+        try {
+            number = Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("enter a NUMBER please, got: " + text);
+        }
+        if (number < 1 || number > max) {
+            throw new IllegalArgumentException("enter a CORRECT number please (1 - " + max + ")");
         }
+        return number;
     }
 
-    private void updateTaskPriorities() {
-        for (int i = 0; i < tasks.size(); i++) {
-            tasks.get(i).setPriority(i + DEFAULT_FIRST_PRIORITY);
+    private int requireTaskIndex(String text) {
+        long id = parseTaskId(text);
+        if (id == 0) return requireNumber(text, list.size()) - 1;
+        int index = list.indexOf(id);
+        if (index == -1) throw new IllegalArgumentException("no task with id " + id + " in the list");
+        return index;
+    }
+
+    //без хранилища список просто живет в памяти
+    public void openStorage(Path dir, boolean syncEachRecord) {
+        list.onWarning(ToDo::warn);
+        try {
+            list.openStorage(dir, syncEachRecord);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("storage is unavailable, changes will not be saved: " + e.getMessage());
         }
     }
 
-    //задача мэйна - запуск приложения
-    public static void main(String[] args) {
-        ToDo todoApp = new ToDo();
-        todoApp.run();
+    public void closeStorage() {
+        if (workspaces != null) workspaces.close();
+        try {
+            list.close();
+        } catch (IOException e) {
+            System.out.println("cannot close storage: " + e.getMessage());
+        }
     }
 
     public void run() {
@@ -195,55 +724,92 @@ public class ToDo {
                 int option = scan.nextInt();
                 scan.nextLine();
 
-                switch(option) {
-                    case 1:
-                        createTask();
-                        break;
-                    case 2:
-                        editTask();
-                        break;
-                    case 3:
-                        deleteTask();
-                        break;
-                    case 4:
-                        addDeadline();
-                        break;
-                    case 5:
-                        addSubtask();
-                        break;
-                    case 6:
-                        deleteSubtask();
-                        break;
-                    case 7:
-                        changePriority();
-                        break;
-                    case 8:
-                        sortByDates();
-                        break;
-                    case 9:
-                        sortByPriority();
-                        break;
-                    case 10:
-                        searchTasks();
-                        break;
-                    case 11:
-                        showTodo();
-                        break;
-                    case 12:
-                        showDeletedTasks();
-                        break;
-                    case 13:
-                        restoreTask();
-                        break;
-                    case 14:
-                        restoreSubtask();
-                        break;
-                    case 15:
-                        System.out.println("goodbye!");
-                        scan.close();
-                        return;
-                    default:
-                        System.out.println("invalid option! choose 1-15");
+                //время, пока пункт меню ждет ввода, из задержки вычитается
+                Metrics.Sample sample = metrics.start();
+                long waited = input.getWaitedNanos();
+                try {
+                    switch(option) {
+                        case 1:
+                            createTask();
+                            break;
+                        case 2:
+                            editTask();
+                            break;
+                        case 3:
+                            deleteTask();
+                            break;
+                        case 4:
+                            addDeadline();
+                            break;
+                        case 5:
+                            addSubtask();
+                            break;
+                        case 6:
+                            deleteSubtask();
+                            break;
+                        case 7:
+                            changePriority();
+                            break;
+                        case 8:
+                            sortByDates();
+                            break;
+                        case 9:
+                            sortByPriority();
+                            break;
+                        case 10:
+                            searchTasks();
+                            break;
+                        case 11:
+                            showTodo();
+                            break;
+                        case 12:
+                            showDeletedTasks();
+                            break;
+                        case 13:
+                            restoreTask();
+                            break;
+                        case 14:
+                            restoreSubtask();
+                            break;
+                        case 15:
+                            showDeadlines();
+                            break;
+                        case 16:
+                            sortByDescription();
+                            break;
+                        case 17:
+                            markDone();
+                            break;
+                        case 18:
+                            showTaskTree();
+                            break;
+                        case 19:
+                            importTasks();
+                            break;
+                        case 20:
+                            exportTasks();
+                            break;
+                        case 21:
+                            undoChange();
+                            break;
+                        case 22:
+                            redoChange();
+                            break;
+                        case 23:
+                            System.out.print(metrics.dump());
+                            break;
+                        case 24:
+                            System.out.println("goodbye!");
+                            closeStorage();
+                            scan.close();
+                            return;
+                        default:
+                            System.out.println("invalid option! choose 1-24");
+                    }
+                } finally {
+                    if (option >= 1 && option < MENU_COMMANDS.length) {
+                        sample.stop("menu." + MENU_COMMANDS[option], input.getWaitedNanos() - waited);
+                    }
                 }
             } catch (java.util.InputMismatchException e) {
                 System.out.println("enter a NUMBER from menu!");
@@ -272,306 +838,417 @@ public class ToDo {
         System.out.println("12\\\\ show deleted tasks");
         System.out.println("13\\\\ restore deleted task");
         System.out.println("14\\\\ restore deleted subtask");
-        System.out.println("15\\\\ exit");
+        System.out.println("15\\\\ show tasks by deadline");
+        System.out.println("16\\\\ sort tasks by description");
+        System.out.println("17\\\\ mark task or subtask done/undone");
+        System.out.println("18\\\\ show task with all subtasks");
+        System.out.println("19\\\\ import tasks from a file");
+        System.out.println("20\\\\ export tasks to a file");
+        System.out.println("21\\\\ undo last change");
+        System.out.println("22\\\\ redo undone change");
+        System.out.println("23\\\\ show metrics");
+        System.out.println("24\\\\ exit");
         System.out.println(" ");
         System.out.println("what do you want to do?");
     }
 
     public void showTodo() {
         if (isListEmpty()) return;
-        displayTasks(tasks, false);
+        displayTasks((from, count) -> list.page(TaskSorter.Order.PRIORITY, from, count), list.size(), false);
     }
 
     public void createTask() {
-        if (tasks.size() >= MAX_TASKS) {
-            System.out.println("cannot add more tasks! maximum limit reached (" + MAX_TASKS + ")");
-            return;
-        }
-
-        String description = readInputWithValidation("enter the task:", 500);
+        String description = readInputWithValidation("enter the task:", DESCRIPTION_MAX_LENGTH);
         if (description == null) return;
 
-        //текущее кол-во задач + 1 == автоматически в конец списка по приоритету
-        int newPriority = tasks.size() + DEFAULT_FIRST_PRIORITY;
-        Task newTask = new Task(description, newPriority);
-        tasks.add(newTask);
+        Task newTask = list.insertTask(description, System.currentTimeMillis());
         System.out.println("- successfully added! now go making it done");
-        showTodo();
+        displayTask(newTask);
     }
 
     public void editTask() {
         if (isListEmpty()) return;
 
-        System.out.println("enter the number of task you want to edit:");
-        int number = readTaskNumber();
-        if (number == -1 || !isValidIndex(number)) return; //-1 это если readTaskNumber() говорит об ошибке ввода
+        System.out.println("enter the number of task you want to edit (or its id, like #12):");
+        int number = readTaskRef();
+        if (number == -1 || !isValidIndex(number)) return; //-1 это если readTaskRef() говорит об ошибке ввода
 
-        BaseTask task = tasks.get(number - 1);
+        BaseTask task = list.get(number - 1);
         System.out.println("current task: " + task);
 
-        String editedDescription = readInputWithValidation("enter edited task:", 500);
+        String editedDescription = readInputWithValidation("enter edited task:", DESCRIPTION_MAX_LENGTH);
         if (editedDescription == null) return;
 
-        task.setDescription(editedDescription);
+        if (!changeTask(task.getId(), index -> list.editDescription(index, editedDescription))) return;
         System.out.println("- edited!");
-        showTodo();
+        displayTask(task);
     }
 
     public void deleteTask() {
         if (isListEmpty()) return;
 
-        System.out.println("enter the number of task you want to delete:");
-        int number = readTaskNumber();
+        System.out.println("enter the number of task you want to delete (or its id, like #12):");
+        int number = readTaskRef();
         if (number == -1 || !isValidIndex(number)) return;
 
-        BaseTask removedTask = tasks.remove(number - 1);
-        deletedTasks.add(removedTask);
-        updateTaskPriorities();
+        if (!changeTask(list.get(number - 1).getId(), list::removeTask)) return;
         System.out.println("- task removed!");
-        showTodo();
     }
 
     public void restoreTask() {
-        if (deletedTasks.isEmpty()) {
+        int deletedCount = list.getDeletedCount();
+        if (deletedCount == 0) {
             System.out.println("archive is empty, nothing to restore");
             return;
         }
 
-        System.out.println("enter the number of task to restore:");
-        int number = readTaskNumber();
-        if (number == -1 || !isValidIndex(number, deletedTasks.size())) return;
+        System.out.println("recently deleted tasks:");
+        showRecentlyDeleted(deletedCount);
+        System.out.println("enter the id of task to restore (like: 12):");
+        int id = readTaskNumber();
+        if (id == -1) return;
 
-        if (tasks.size() >= MAX_TASKS) {
-            System.out.println("cannot restore task! maximum limit reached (" + MAX_TASKS + ")");
-            return;
+        try {
+            BaseTask restoredTask = list.restoreArchivedTask(id);
+            System.out.println("- task restored!");
+            displayTask(restoredTask);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
         }
-
-        BaseTask restoredTask = deletedTasks.remove(number - 1);
-        tasks.add(restoredTask);
-        restoredTask.setPriority(tasks.size() + DEFAULT_FIRST_PRIORITY);
-        System.out.println("- task restored!");
-        showTodo();
     }
 
     public void showDeletedTasks() {
-        if (deletedTasks.isEmpty()) {
+        int deletedCount = list.getDeletedCount();
+        if (deletedCount == 0) {
             System.out.println("archive is empty, nothing was deleted yet");
             return;
         }
 
         System.out.println("recently deleted tasks:");
-        displayTasks(deletedTasks, false);
+        showRecentlyDeleted(deletedCount);
+    }
+
+    //корзина может быть большой - показываем последние PAGE_SIZE удалений, остальные восстанавливаются по id так же
+    private void showRecentlyDeleted(int deletedCount) {
+        int from = Math.max(0, deletedCount - PAGE_SIZE);
+        for (TrashStore.Entry<BaseTask> entry : list.deletedPage(from, PAGE_SIZE)) {
+            renderer.appendArchived(entry.id, entry.value.toString(), entry.deletedAt, "");
+        }
+        renderer.flush();
+        if (from > 0) {
+            System.out.println("- shown the last " + PAGE_SIZE + " of " + deletedCount + " deleted tasks");
+        }
     }
 
     public void addSubtask() {
         if (isListEmpty()) return;
 
-        System.out.println("enter the number of task to add subtask:");
-        int number = readTaskNumber();
-        if (number == -1 || !isValidIndex(number)) return;
+        System.out.println("enter the number of task or subtask to add subtask to (like: 3, 3.1 or #12.1):");
+        int[] node = readNodeRef();
+        if (node == null) return;
 
-        Task task = getTaskAsTask(number - 1);
-        if (task == null) return;
-
-        System.out.println("current task: " + task);
-        String subtask = readInputWithValidation("enter subtask:", 200);
+        Task task = getTaskAsTask(node[0]);
+        System.out.println("current task: " + list.getSubtask(node[0], pathOf(node)));
+        String subtask = readInputWithValidation("enter subtask:", SUBTASK_MAX_LENGTH);
         if (subtask == null) return;
 
-        task.addSubtask(subtask);
+        if (!changeTask(task.getId(), index -> list.appendSubtask(index, pathOf(node), subtask))) return;
         System.out.println("- subtask added!");
-        showTodo();
+        displayTask(task);
     }
 
     public void deleteSubtask() {
         if (isListEmpty()) return;
 
-        System.out.println("enter the number of task:");
-        int taskNumber = readTaskNumber();
+        System.out.println("enter the number of task (or its id, like #12):");
+        int taskNumber = readTaskRef();
         if (taskNumber == -1 || !isValidIndex(taskNumber)) return;
 
         Task task = getTaskAsTask(taskNumber - 1);
         if (task == null) return;
 
-        ArrayList<String> subtasks = task.getSubtasks();
-        if (subtasks.isEmpty()) {
+        if (!task.hasSubtasks()) {
             System.out.println("this task has no subtasks");
             return;
         }
 
         System.out.println("current subtasks:");
-        displaySubtasks(task, taskNumber);
+        displayTask(task);
 
-        System.out.println("enter the number of subtask to delete (format: task.subtask):");
-        String input = scan.nextLine().trim();
+        System.out.println("enter the number of subtask to delete, its own subtasks go with it (like: 1.2 or 1.2.1):");
+        int[] node = readNodeRef();
+        if (node == null) return;
+        if (node.length < 2 || node[0] != taskNumber - 1) {
+            System.out.println("enter a subtask of this task (like: " + taskNumber + ".1)");
+            return;
+        }
+
+        if (!changeTask(task.getId(), index -> list.removeSubtask(index, pathOf(node)))) return;
+        System.out.println("- subtask deleted!");
+        displayTask(task);
+    }
+
+    public void markDone() {
+        if (isListEmpty()) return;
+
+        System.out.println("enter the number of task or subtask (like: 3, 3.1.2 or #12.1):");
+        int[] node = readNodeRef();
+        if (node == null) return;
+
+        Task task = getTaskAsTask(node[0]);
+        boolean done = !list.getSubtask(node[0], pathOf(node)).isDone();
+        if (!changeTask(task.getId(), index -> list.setDone(index, pathOf(node), done))) return;
+        System.out.println(done ? "- marked done!" : "- marked not done!");
+        displayTask(task);
+    }
+
+    public void showTaskTree() {
+        if (isListEmpty()) return;
+
+        System.out.println("enter the number of task (or its id, like #12):");
+        int number = readTaskRef();
+        if (number == -1 || !isValidIndex(number)) return;
+
+        displayTask(list.get(number - 1));
+    }
+
+    //отмена любой правки списка; отмененная задача или подзадача лежит в корзине, пока ее не вернет redo
+    public void undoChange() {
         try {
-            String[] parts = input.split("\\.");
-            if (parts.length != 2) {
-                System.out.println("enter correct format (like: 1.2)");
+            if (!list.undo()) {
+                System.out.println("nothing to undo");
                 return;
             }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println("cannot undo: " + e.getMessage());
+            return;
+        }
+        System.out.println("- undone! " + list.getUndoCount() + " more to undo, " + list.getRedoCount() + " to redo");
+    }
 
-            int subtaskNumber = Integer.parseInt(parts[1]);
-            if (isValidSubtaskIndex(taskNumber - 1, subtaskNumber)) {
-                String deletedSubtask = subtasks.get(subtaskNumber - 1);
-                deletedSubtasks.add(new SubtaskArchive(taskNumber - 1, deletedSubtask));
-                task.removeSubtask(subtaskNumber - 1);
-                System.out.println("- subtask deleted!");
-                showTodo();
+    public void redoChange() {
+        try {
+            if (!list.redo()) {
+                System.out.println("nothing to redo");
+                return;
             }
-        } catch (NumberFormatException e) {
-            System.out.println("enter correct number format (like: 1.2)");
-        } catch (Exception e) {
-            System.out.println("error: " + e.getMessage());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println("cannot redo: " + e.getMessage());
+            return;
+        }
+        System.out.println("- redone! " + list.getUndoCount() + " to undo, " + list.getRedoCount() + " more to redo");
+    }
+
+    //задачи из файла добавляются в конец списка, удаленные - в корзину
+    public void importTasks() {
+        String file = readInputWithValidation("enter the file to import (.csv or .json):", FILE_NAME_MAX_LENGTH);
+        if (file == null) return;
+        try {
+            System.out.println(transfer(true, file));
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        }
+    }
+
+    public void exportTasks() {
+        String file = readInputWithValidation("enter the file to export to (.csv or .json):", FILE_NAME_MAX_LENGTH);
+        if (file == null) return;
+        try {
+            System.out.println(transfer(false, file));
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
         }
     }
 
     public void restoreSubtask() {
-        if (deletedSubtasks.isEmpty()) {
+        int deletedCount = list.getDeletedSubtaskCount();
+        if (deletedCount == 0) {
             System.out.println("no deleted subtasks to restore");
             return;
         }
 
         System.out.println("recently deleted subtasks:");
-        for (int i = 0; i < deletedSubtasks.size(); i++) {
-            SubtaskArchive archive = deletedSubtasks.get(i);
-            if (archive.taskIndex >= 0 && archive.taskIndex < tasks.size()) {
-                BaseTask baseTask = tasks.get(archive.taskIndex);
-                if (baseTask instanceof Task) {
-                    Task parentTask = (Task) baseTask;
-                    System.out.println((i + 1) + ". " + archive.subtask + " (from task: " + parentTask + ")");
-                }
-            } else {
-                System.out.println((i + 1) + ". " + archive.subtask + " (original task no longer exists)");
-            }
+        int from = Math.max(0, deletedCount - PAGE_SIZE);
+        for (TrashStore.Entry<TaskList.SubtaskArchive> entry : list.deletedSubtaskPage(from, PAGE_SIZE)) {
+            Task parentTask = list.parentOf(entry.value);
+            renderer.appendArchived(entry.id, entry.value.subtask.toString(), entry.deletedAt,
+                    parentTask != null ? " (from task: " + parentTask + ")" : " (original task is not in the list)");
+        }
+        renderer.flush();
+        if (from > 0) {
+            System.out.println("- shown the last " + PAGE_SIZE + " of " + deletedCount + " deleted subtasks");
         }
 
-        System.out.println("enter the number of subtask to restore:");
-        int number = readTaskNumber();
-        if (number == -1 || !isValidIndex(number, deletedSubtasks.size())) return;
-
-        SubtaskArchive archive = deletedSubtasks.remove(number - 1);
+        System.out.println("enter the id of subtask to restore (like: 12):");
+        int id = readTaskNumber();
+        if (id == -1) return;
 
-        if (archive.taskIndex < 0 || archive.taskIndex >= tasks.size()) {
-            System.out.println("cannot restore subtask - original task no longer exists");
+        Task parentTask;
+        try {
+            parentTask = list.restoreArchivedSubtask(id);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
             return;
         }
-
-        Task parentTask = getTaskAsTask(archive.taskIndex);
-        if (parentTask != null) {
-            parentTask.addSubtask(archive.subtask);
-            System.out.println("- subtask restored to task: " + parentTask);
-            showTodo();
+        if (parentTask == null) {
+            System.out.println("cannot restore subtask - original task is not in the list (restore the task first)");
+            return;
         }
+
+        System.out.println("- subtask restored to task: " + parentTask);
+        displayTask(parentTask);
     }
 
     public void sortByDates() {
         if (isListEmpty()) return;
 
-        ArrayList<BaseTask> tasksToSort = new ArrayList<>(tasks);
-        TaskSorter.sortByDate(tasksToSort);
-
         System.out.println("- tasks sorted by dates!");
-        displayTasks(tasksToSort, true);
+        displayTasks((from, count) -> list.page(TaskSorter.Order.DATE, from, count), list.size(), true);
     }
 
     public void sortByPriority() {
         if (isListEmpty()) return;
 
-        ArrayList<BaseTask> tasksToSort = new ArrayList<>(tasks);
-        TaskSorter.sortByPriority(tasksToSort);
-
         System.out.println("- tasks sorted by priority!");
-        displayTasks(tasksToSort, false);
+        displayTasks((from, count) -> list.page(TaskSorter.Order.PRIORITY, from, count), list.size(), false);
     }
 
-    public void changePriority() {
+    public void sortByDescription() {
         if (isListEmpty()) return;
 
-        System.out.println("enter the number of task you want to change priority for:");
-        int number = readTaskNumber();
-        if (number == -1 || !isValidIndex(number)) return;
+        System.out.println("- tasks sorted by description!");
+        displayTasks((from, count) -> list.page(TaskSorter.Order.DESCRIPTION, from, count), list.size(), false);
+    }
 
-        BaseTask task = tasks.get(number - 1);
-        System.out.println("current priority: " + task.getPriority());
-        System.out.println("enter new priority (1 - " + tasks.size() + ", where 1 is the highest):");
+    public void changePriority() {
+        if (isListEmpty()) return;
+
+        System.out.println("enter the number of task you want to change priority for (or several, like: 1,4,#7):");
+        ArrayList<BaseTask> movedTasks = readTaskList();
+        if (movedTasks == null) return;
+
+        //остальные задачи без переносимых + место под блок
+        int maxPriority = list.size() - movedTasks.size() + DEFAULT_FIRST_PRIORITY;
+        if (movedTasks.size() == 1) {
+            System.out.println("current priority: " + movedTasks.get(0).getPriority());
+            System.out.println("enter new priority (1 - " + maxPriority + ", where 1 is the highest):");
+        } else {
+            System.out.println("enter new priority for the first of them (1 - " + maxPriority + "), the rest will follow it:");
+        }
 
         int newPriority = readTaskNumber();
         if (newPriority == -1) return;
 
-        if (newPriority < DEFAULT_FIRST_PRIORITY || newPriority > tasks.size()) {
-            System.out.println("priority must be between " + DEFAULT_FIRST_PRIORITY + " and " + tasks.size());
+        if (newPriority < DEFAULT_FIRST_PRIORITY || newPriority > maxPriority) {
+            System.out.println("priority must be between " + DEFAULT_FIRST_PRIORITY + " and " + maxPriority);
             return;
         }
 
-        ArrayList<BaseTask> tempTasks = new ArrayList<>(tasks);
-
-        //удаляем задачу с текущей позиции
-        BaseTask movedTask = tempTasks.remove(number - 1);
-        //и вставляем на новую
-        tempTasks.add(newPriority - DEFAULT_FIRST_PRIORITY, movedTask);
-
-        //пересчитываем приоритеты для всех задач
-        for (int i = 0; i < tempTasks.size(); i++) {
-            tempTasks.get(i).setPriority(i + DEFAULT_FIRST_PRIORITY);
+        //приоритет = позиция в хранилище, поэтому переставляются только выбранные задачи
+        if (movedTasks.size() == 1) {
+            if (!changeTask(movedTasks.get(0).getId(), from -> list.moveTask(from, newPriority - DEFAULT_FIRST_PRIORITY))) return;
+        } else {
+            list.moveTasks(movedTasks, newPriority - DEFAULT_FIRST_PRIORITY);
         }
 
-        //обновляем основной список
-        tasks = tempTasks;
-
         System.out.println("- priority changed!");
-        showTodo();
+        for (BaseTask task : movedTasks) {
+            renderer.appendTask(task, task.getPriority(), false, false);
+        }
+        renderer.flush();
     }
 
     public void addDeadline() {
         if (isListEmpty()) return;
 
-        System.out.println("enter number of a task you need deadline to:");
-        int number = readTaskNumber();
-        if (number == -1 || !isValidIndex(number)) return;
+        System.out.println("enter number of a task or subtask you need deadline to (like: 3, 3.1 or #12.1):");
+        int[] node = readNodeRef();
+        if (node == null) return;
 
-        Task task = getTaskAsTask(number - 1);
-        if (task == null) return;
+        Task task = getTaskAsTask(node[0]);
 
-        String deadlineText = readInputWithValidation("add deadline:", 100);
+        String deadlineText = readInputWithValidation("add deadline (" + Deadlines.FORMATS_HINT + "):", DEADLINE_MAX_LENGTH);
         if (deadlineText == null) return;
 
-        task.setDeadline(deadlineText);
+        //разбираем один раз здесь, дальше задача хранит готовый момент времени
+        if (Deadlines.parse(deadlineText) == Deadlines.NONE) {
+            System.out.println("cannot read this date, use: " + Deadlines.FORMATS_HINT);
+            return;
+        }
+
+        if (!changeTask(task.getId(), index -> list.setDeadline(index, pathOf(node), deadlineText))) return;
         System.out.println("- deadline added!");
-        showTodo();
+        displayTask(task);
     }
 
-    public void searchTasks() {
+    public void showDeadlines() {
         if (isListEmpty()) return;
 
-        String searchText = readInputWithValidation("add text for search:", 50);
-        if (searchText == null) return;
+        System.out.println("1\\\\ all tasks by deadline");
+        System.out.println("2\\\\ overdue tasks");
+        System.out.println("3\\\\ next tasks to be done");
+        System.out.println("4\\\\ tasks due before a date");
+        int mode = readTaskNumber();
+        if (mode == -1 || !isValidIndex(mode, 4)) return;
+
+        long now = System.currentTimeMillis();
+        ArrayList<BaseTask> found;
+        switch (mode) {
+            case 1:
+                found = list.page(TaskSorter.Order.DEADLINE, 0, list.size(TaskSorter.Order.DEADLINE));
+                break;
+            case 2:
+                found = list.dueBefore(now);
+                break;
+            case 3:
+                System.out.println("how many tasks to show?");
+                int limit = readTaskNumber();
+                if (limit == -1 || !isValidIndex(limit, Math.max(1, list.size(TaskSorter.Order.DEADLINE)))) return;
+                found = list.nextDue(now, limit);
+                break;
+            default:
+                String dateText = readInputWithValidation("enter the date (" + Deadlines.FORMATS_HINT + "):", DEADLINE_MAX_LENGTH);
+                if (dateText == null) return;
+                long before = Deadlines.parse(dateText);
+                if (before == Deadlines.NONE) {
+                    System.out.println("cannot read this date, use: " + Deadlines.FORMATS_HINT);
+                    return;
+                }
+                found = list.dueBefore(before);
+        }
 
-        System.out.println("found tasks and subtasks:");
-        boolean found = false;
+        if (found.isEmpty()) {
+            System.out.println("no tasks with such deadlines");
+            return;
+        }
+        for (BaseTask task : found) {
+            renderer.appendTask(task, task.getPriority(), false, false);
+            if (((Task) task).getDeadlineMillis() < now) {
+                renderer.appendLine("   ← overdue");
+            }
+        }
+        renderer.flush();
+    }
 
-        for (int i = 0; i < tasks.size(); i++) {
-            BaseTask task = tasks.get(i);
-            String taskText = task.toString().toLowerCase();
+    public void searchTasks() {
+        if (isListEmpty()) return;
 
-            //поиск по основной задаче
-            if (taskText.contains(searchText)) {
-                System.out.println((i + 1) + "\\\\ " + task + " [priority: " + task.getPriority() + "]");
-                found = true;
-            }
+        String searchText = readInputWithValidation("add text for search:", SEARCH_MAX_LENGTH);
+        if (searchText == null) return;
 
-            //поиск по подзадачам
-            if (task instanceof Task) {
-                Task concreteTask = (Task) task;
-                ArrayList<String> subtasks = concreteTask.getSubtasks();
-                for (int j = 0; j < subtasks.size(); j++) {
-                    if (subtasks.get(j).toLowerCase().contains(searchText)) {
-                        System.out.println((i + 1) + "\\\\ " + task + " [priority: " + task.getPriority() + "]");
-                        System.out.println("   " + (i + 1) + "." + (j + 1) + " " + subtasks.get(j) + " ← found in subtask");
-                        found = true;
-                    }
-                }
+        System.out.println("found tasks and subtasks:");
+        ArrayList<SearchHit> hits = list.search(searchText);
+        boolean found = !hits.isEmpty();
+
+        for (SearchHit hit : hits) {
+            BaseTask task = hit.task;
+            int number = task.getPriority() - DEFAULT_FIRST_PRIORITY + 1;
+            renderer.appendTask(task, number, false, false);
+            if (hit.subtask != null) {
+                renderer.appendBranch(number, hit.subtask, " ← found in subtask");
             }
         }
+        renderer.flush();
 
         if (!found) {
             System.out.println("sorry, nothing containing \"" + searchText + "\" is found");
@@ -0,0 +1,267 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//корзина: удаленные записи по стабильному id в порядке удаления, восстановление по id за O(1)
+//ограничена количеством, возрастом и примерным объемом в куче; самые старые записи сверх объема
+//уходят в файл (если он задан), а не поместившиеся по количеству или возрасту - забываются
+//возраст проверяется при добавлении записи: now берется из операции, поэтому проигрывание журнала
+//забывает те же записи, что и исходный запуск
+class TrashStore<T> implements AutoCloseable {
+    interface Codec<T> {
+        void write(DataOutputStream out, T value) throws IOException;
+        T read(DataInputStream in) throws IOException;
+        long bytes(T value); //примерно сколько занимает в куче
+    }
+
+    static final class Entry<T> {
+        final long id;
+        final long deletedAt;
+        final T value;
+
+        Entry(long id, long deletedAt, T value) {
+            this.id = id;
+            this.deletedAt = deletedAt;
+            this.value = value;
+        }
+    }
+
+    //запись в файле: значение читается обратно только при восстановлении или показе
+    private static final class Spilled {
+        final long deletedAt;
+        final long offset;
+        final int length;
+
+        Spilled(long deletedAt, long offset, int length) {
+            this.deletedAt = deletedAt;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final long COMPACT_SPILL_BYTES = 1 << 20;
+
+    private final Codec<T> codec;
+    private final int maxEntries;
+    private final long maxAgeMillis;
+    private final long maxHeapBytes;
+
+    //в файл уходят самые старые записи, поэтому выгруженные всегда старше лежащих в куче
+    private final LinkedHashMap<Long, Spilled> spilled = new LinkedHashMap<>();
+    private final LinkedHashMap<Long, Entry<T>> onHeap = new LinkedHashMap<>();
+    private long heapBytes;
+
+    private Path spillFile;
+    private FileChannel spill;
+    private long spillEnd;
+    private long spillGarbage;
+
+    TrashStore(Codec<T> codec, int maxEntries, long maxAgeMillis, long maxHeapBytes) {
+        this.codec = codec;
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxHeapBytes = maxHeapBytes;
+    }
+
+    //файл временный: содержимое корзины и так восстанавливается из снимка и журнала;
+    //создается при первом вытеснении, а пока корзина помещается в куче, запуск его не трогает
+    void spillTo(Path file) throws IOException {
+        Files.deleteIfExists(file); //остался от прошлого запуска
+        spillFile = file;
+        spillEnd = 0;
+        spillGarbage = 0;
+        enforceLimits(Long.MIN_VALUE);
+    }
+
+    public int size() { return spilled.size() + onHeap.size(); }
+    public boolean contains(long id) { return onHeap.containsKey(id) || spilled.containsKey(id); }
+
+    public void add(long id, T value, long now) {
+        onHeap.put(id, new Entry<>(id, now, value));
+        heapBytes += codec.bytes(value);
+        enforceLimits(now);
+    }
+
+    //для загрузки: время удаления уже известно
+    void load(long id, T value, long deletedAt) {
+        onHeap.put(id, new Entry<>(id, deletedAt, value));
+        heapBytes += codec.bytes(value);
+        enforceLimits(Long.MIN_VALUE);
+    }
+
+    //null если записи с таким id нет (или ее уже забыли)
+    public T remove(long id) {
+        Entry<T> entry = get(id);
+        if (entry == null) return null;
+        discard(id);
+        return entry.value;
+    }
+
+    //то же, что remove, но без чтения значения из файла - для записи, уже полученной через get
+    public void discard(long id) {
+        Entry<T> entry = onHeap.remove(id);
+        if (entry != null) {
+            heapBytes -= codec.bytes(entry.value);
+            return;
+        }
+
+        Spilled location = spilled.remove(id);
+        if (location == null) return;
+        spillGarbage += location.length;
+        compactSpillIfNeeded();
+    }
+
+    public Entry<T> get(long id) {
+        Entry<T> entry = onHeap.get(id);
+        if (entry != null) return entry;
+        Spilled location = spilled.get(id);
+        return location == null ? null : new Entry<>(id, location.deletedAt, readSpilled(location));
+    }
+
+    //от старых к новым; выгруженные записи читаются из файла по одной, пропущенные не читаются вовсе
+    public Iterator<Entry<T>> iterator(int from) {
+        Iterator<Map.Entry<Long, Spilled>> old = spilled.entrySet().iterator();
+        Iterator<Entry<T>> recent = onHeap.values().iterator();
+        for (int i = 0; i < from && (old.hasNext() || recent.hasNext()); i++) {
+            if (old.hasNext()) {
+                old.next();
+            } else {
+                recent.next();
+            }
+        }
+
+        return new Iterator<>() {
+            public boolean hasNext() { return old.hasNext() || recent.hasNext(); }
+
+            public Entry<T> next() {
+                if (!old.hasNext()) return recent.next();
+                Map.Entry<Long, Spilled> next = old.next();
+                return new Entry<>(next.getKey(), next.getValue().deletedAt, readSpilled(next.getValue()));
+            }
+        };
+    }
+
+    public ArrayList<Entry<T>> page(int from, int count) {
+        ArrayList<Entry<T>> page = new ArrayList<>(Math.max(0, Math.min(count, size() - from)));
+        Iterator<Entry<T>> iterator = iterator(from);
+        while (page.size() < count && iterator.hasNext()) {
+            page.add(iterator.next());
+        }
+        return page;
+    }
+
+    public void close() throws IOException {
+        if (spillFile == null) return;
+        if (spill != null) spill.close();
+        spill = null;
+        Files.deleteIfExists(spillFile);
+        spillFile = null;
+    }
+
+    private void enforceLimits(long now) {
+        long expired = now == Long.MIN_VALUE || maxAgeMillis == Long.MAX_VALUE ? Long.MIN_VALUE : now - maxAgeMillis;
+        while (size() > 0 && (size() > maxEntries || oldestDeletedAt() < expired)) {
+            dropOldest();
+        }
+        while (heapBytes > maxHeapBytes && !onHeap.isEmpty()) {
+            Entry<T> oldest = onHeap.values().iterator().next();
+            onHeap.remove(oldest.id);
+            heapBytes -= codec.bytes(oldest.value);
+            if (spillFile != null) {
+                spilled.put(oldest.id, writeSpilled(oldest));
+            }
+        }
+    }
+
+    private long oldestDeletedAt() {
+        if (!spilled.isEmpty()) return spilled.values().iterator().next().deletedAt;
+        return onHeap.values().iterator().next().deletedAt;
+    }
+
+    private void dropOldest() {
+        if (!spilled.isEmpty()) {
+            Iterator<Spilled> oldest = spilled.values().iterator();
+            spillGarbage += oldest.next().length;
+            oldest.remove();
+            compactSpillIfNeeded();
+        } else {
+            Iterator<Entry<T>> oldest = onHeap.values().iterator();
+            heapBytes -= codec.bytes(oldest.next().value);
+            oldest.remove();
+        }
+    }
+
+    private Spilled writeSpilled(Entry<T> entry) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            codec.write(new DataOutputStream(bytes), entry.value);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            Spilled location = new Spilled(entry.deletedAt, spillEnd, buffer.remaining());
+            if (spill == null) {
+                spill = FileChannel.open(spillFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            while (buffer.hasRemaining()) {
+                spillEnd += spill.write(buffer, spillEnd);
+            }
+            return location;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private T readSpilled(Spilled location) {
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(location.length);
+            while (buffer.hasRemaining()) {
+                if (spill.read(buffer, location.offset + buffer.position()) < 0) throw new EOFException("trash file is truncated");
+            }
+            return codec.read(new DataInputStream(new ByteArrayInputStream(buffer.array())));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //восстановленные и забытые записи оставляют в файле дыры; когда дыр больше, чем живых данных,
+    //живые записи по одной переписываются в новый файл
+    private void compactSpillIfNeeded() {
+        if (spillGarbage < COMPACT_SPILL_BYTES || spillGarbage < spillEnd - spillGarbage) return;
+
+        Path temp = spillFile.resolveSibling(spillFile.getFileName() + ".tmp");
+        try (FileChannel old = spill) {
+            spill = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            spillEnd = 0;
+            spillGarbage = 0;
+            for (Map.Entry<Long, Spilled> entry : spilled.entrySet()) {
+                Spilled location = entry.getValue();
+                ByteBuffer buffer = ByteBuffer.allocate(location.length);
+                while (buffer.hasRemaining()) {
+                    if (old.read(buffer, location.offset + buffer.position()) < 0) throw new EOFException("trash file is truncated");
+                }
+                buffer.flip();
+                entry.setValue(new Spilled(location.deletedAt, spillEnd, location.length));
+                while (buffer.hasRemaining()) {
+                    spillEnd += spill.write(buffer, spillEnd);
+                }
+            }
+            Files.move(temp, spillFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+//декартово дерево по неявному ключу: позиция задачи = кол-во узлов левее нее,
+//поэтому доступ по позиции, вставка, удаление и поиск позиции задачи - O(log n), без ограничения размера
+//
+//писать может только один поток, а читать - сколько угодно, в том числе во время записи (TaskList потом
+//проверяет, что чтение не пересеклось с записью). Ключи кучи у всех узлов разные и ребенок всегда
+//ниже родителя, поэтому даже по наполовину перестроенному дереву спуск и подъем не зациклятся
+class TreapTaskStore implements TaskStore {
+    private static class Node {
+        volatile BaseTask task; //null пока задача из снимка не прочитана
+        final int row;
+        final long heap;
+        int size = 1;
+        Node left, right, parent;
+
+        Node(BaseTask task, int row, long heap) {
+            this.task = task;
+            this.row = row;
+            this.heap = heap;
+        }
+    }
+
+    //только для вспомогательных порядков; основное хранилище держит узел прямо в задаче
+    private final IdentityHashMap<BaseTask, Node> nodes = new IdentityHashMap<>();
+    private final Random random = new Random();
+    private int sequence; //младшая половина ключа кучи, делает ключи уникальными
+    private final boolean ownsPriorities;
+    private IntFunction<BaseTask> loader;
+    private Node[] loadedRows; //узлы строк снимка по номеру строки - для поиска задачи по id без обхода
+    private Node root;
+
+    public TreapTaskStore() { this(true); }
+
+    //ownsPriorities = false для вспомогательных порядков (сортировок): приоритет задачи
+    //определяет только основной список, в котором она лежит
+    public TreapTaskStore(boolean ownsPriorities) {
+        this.ownsPriorities = ownsPriorities;
+    }
+
+    public int size() { return size(root); }
+
+    public BaseTask get(int index) {
+        checkIndex(index, size());
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return materialize(node);
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    public void add(BaseTask task) { insert(size(), task); }
+
+    public void insert(int index, BaseTask task) {
+        checkIndex(index, size() + 1);
+        Node node = new Node(task, -1, ((long) random.nextInt() << 32) | (sequence++ & 0xFFFFFFFFL));
+        bind(task, node);
+        insertNode(index, node);
+    }
+
+    public BaseTask remove(int index) {
+        checkIndex(index, size());
+        BaseTask task = materialize(removeNode(index));
+        if (ownsPriorities) {
+            task.storeNode = null;
+            task.owner = null;
+            task.setPriority(index + 1); //запоминаем последний приоритет для архива
+        } else {
+            nodes.remove(task);
+        }
+        return task;
+    }
+
+    private void bind(BaseTask task, Node node) {
+        if (ownsPriorities) {
+            task.storeNode = node;
+            task.owner = this;
+        } else {
+            nodes.put(task, node);
+        }
+    }
+
+    private Node nodeOf(BaseTask task) {
+        if (!ownsPriorities) return nodes.get(task);
+        return task.owner == this ? (Node) task.storeNode : null;
+    }
+
+    public int firstIndexWhere(Predicate<BaseTask> predicate) {
+        int result = size();
+        int offset = 0;
+        Node node = root;
+        while (node != null) {
+            if (predicate.test(materialize(node))) {
+                result = offset + size(node.left);
+                node = node.left;
+            } else {
+                offset += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        return result;
+    }
+
+    //строки снимка сразу раскладываются в идеально сбалансированное дерево за O(n), но задачи
+    //создаются только при первом обращении; приоритеты кучи убывают с глубиной, чтобы новые
+    //случайные узлы не ломали готовую форму и опускались к листьям
+    public void loadLazy(int count, IntFunction<BaseTask> loader) {
+        if (root != null) throw new IllegalStateException("store is not empty");
+        this.loader = loader;
+        loadedRows = new Node[count];
+        setRoot(buildBalanced(0, count, 0));
+    }
+
+    public BaseTask getLoaded(int row) {
+        BaseTask task = materialize(loadedRows[row]);
+        return nodeOf(task) != null ? task : null;
+    }
+
+    private Node buildBalanced(int from, int to, int depth) {
+        if (from >= to) return null;
+        int middle = (from + to) >>> 1;
+        Node node = new Node(null, middle, ((long) (Integer.MAX_VALUE - depth) << 32) | middle);
+        loadedRows[middle] = node;
+        node.left = buildBalanced(from, middle, depth + 1);
+        node.right = buildBalanced(middle + 1, to, depth + 1);
+        update(node);
+        return node;
+    }
+
+    //задачу могут впервые запросить сразу несколько читателей - создает ее только один
+    private BaseTask materialize(Node node) {
+        BaseTask task = node.task;
+        if (task != null) return task;
+        synchronized (node) {
+            if (node.task == null) {
+                BaseTask loaded = loader.apply(node.row);
+                bind(loaded, node);
+                node.task = loaded;
+            }
+            return node.task;
+        }
+    }
+
+    public void forEachRow(RowVisitor visitor) {
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        Node node = root;
+        while (node != null || !stack.isEmpty()) {
+            if (node != null) {
+                stack.push(node);
+                node = node.left;
+                continue;
+            }
+            node = stack.pop();
+            BaseTask task = node.task;
+            visitor.visit(task, task == null ? node.row : -1);
+            node = node.right;
+        }
+    }
+
+    //узел переезжает целиком: остальные задачи не трогаются, их приоритеты пересчитаются из позиций
+    public void move(int from, int to) {
+        checkIndex(from, size());
+        checkIndex(to, size());
+        insertNode(to, removeNode(from));
+    }
+
+    //вынимаем узлы по одному, склеиваем их в блок и вставляем его одним разрезом - O(k log n)
+    public void moveAll(List<BaseTask> moved, int index) {
+        Node block = null;
+        for (BaseTask task : moved) {
+            int position = indexOf(task);
+            if (position == -1) {
+                throw new IllegalArgumentException("task is not in this store: " + task);
+            }
+            block = merge(block, removeNode(position));
+        }
+
+        checkIndex(index, size() + 1);
+        split(root, index);
+        setRoot(merge(merge(splitLeft, block), splitRight));
+    }
+
+    public int indexOf(BaseTask task) {
+        Node node = nodeOf(task);
+        if (node == null || (node.parent == null && node != root)) return -1;
+
+        //поднимаемся к корню и считаем все узлы, оставшиеся слева
+        int index = size(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                index += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return index;
+    }
+
+    public Iterator<BaseTask> iterator() { return iterator(0); }
+
+    //спуск к позиции from кладет в стек ее предков справа - дальше обычный обход, O(log n + k)
+    public Iterator<BaseTask> iterator(int from) {
+        return new Iterator<>() {
+            private final ArrayDeque<Node> stack = new ArrayDeque<>();
+            {
+                int index = from;
+                Node node = root;
+                while (node != null) {
+                    int leftSize = size(node.left);
+                    if (index <= leftSize) {
+                        stack.push(node);
+                        if (index == leftSize) break;
+                        node = node.left;
+                    } else {
+                        index -= leftSize + 1;
+                        node = node.right;
+                    }
+                }
+            }
+
+            private void pushLeft(Node node) {
+                for (; node != null; node = node.left) {
+                    stack.push(node);
+                }
+            }
+
+            public boolean hasNext() { return !stack.isEmpty(); }
+
+            public BaseTask next() {
+                if (stack.isEmpty()) throw new NoSuchElementException();
+                Node node = stack.pop();
+                pushLeft(node.right);
+                return materialize(node);
+            }
+        };
+    }
+
+    private void insertNode(int index, Node node) {
+        split(root, index);
+        setRoot(merge(merge(splitLeft, node), splitRight));
+    }
+
+    //возвращает вынутый узел без детей и родителя, его можно сразу вставить обратно
+    private Node removeNode(int index) {
+        split(root, index);
+        Node left = splitLeft;
+        split(splitRight, 1);
+        Node removed = splitLeft;
+        setRoot(merge(left, splitRight));
+        return removed;
+    }
+
+    //делит дерево на первые count узлов (splitLeft) и остальные (splitRight)
+    private Node splitLeft, splitRight;
+
+    private void split(Node node, int count) {
+        if (node == null) {
+            splitLeft = splitRight = null;
+            return;
+        }
+
+        if (size(node.left) >= count) {
+            split(node.left, count);
+            node.left = splitRight;
+            update(node);
+            detach(splitLeft);
+            splitRight = node;
+        } else {
+            split(node.right, count - size(node.left) - 1);
+            node.right = splitLeft;
+            update(node);
+            detach(splitRight);
+            splitLeft = node;
+        }
+    }
+
+    private Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+
+        if (left.heap > right.heap) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        update(right);
+        return right;
+    }
+
+    private void update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        if (node.left != null) node.left.parent = node;
+        if (node.right != null) node.right.parent = node;
+    }
+
+    private void setRoot(Node node) {
+        root = node;
+        detach(root);
+    }
+
+    private static void detach(Node node) {
+        if (node != null) node.parent = null;
+    }
+
+    private static int size(Node node) { return node == null ? 0 : node.size; }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("index " + index + " out of 0.." + (bound - 1));
+        }
+    }
+}
@@ -0,0 +1,313 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+//история для undo/redo: каждая правка списка оставляет обратную правку - короткую запись из кода операции
+//и нескольких чисел в varint (позиции, id) или текста, который она затерла, а не копию списка. Отмена
+//переставления задачи - это одна обратная перестановка за O(log n) при любой длине списка
+//
+//шаг истории - одна или несколько таких записей подряд (отмена восстановления задачи = восстановить и
+//вернуть на место). Шаги лежат в кольце в куче, ограниченном по числу и объему; если задан файл, самые
+//старые шаги сверх объема уходят в него, а не забываются. Отмена читает их обратно с конца
+class UndoHistory implements AutoCloseable {
+    //обратные правки; позиции - с нуля, пути подзадач - позиции под задачей, как в журнале
+    static final byte DELETE_TASK = 1; //позиция - задача уходит в корзину
+    static final byte RESTORE_TASK = 2; //id в корзине, позиция
+    static final byte EDIT = 3; //позиция, текст
+    static final byte DEADLINE = 4; //позиция, путь, текст ("" - без дедлайна)
+    static final byte DONE = 5; //позиция, путь, 0/1
+    static final byte DELETE_SUBTASK = 6; //позиция, путь, id записи в корзине подзадач (0 - новый)
+    static final byte RESTORE_SUBTASK = 7; //id в корзине подзадач, позиция среди подзадач родителя
+    static final byte MOVE = 8; //откуда, куда
+    static final byte PLACE = 9; //число задач, затем пары id и позиция - вернуть задачи по местам
+
+    //запись обратной правки
+    static final class Delta {
+        private byte[] bytes = new byte[16];
+        private int length;
+
+        Delta(byte operation) {
+            bytes[length++] = operation;
+        }
+
+        //zigzag + varint: позиции и id до 127 занимают байт
+        Delta putLong(long value) {
+            long encoded = (value << 1) ^ (value >> 63);
+            ensureCapacity(10);
+            while ((encoded & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((encoded & 0x7F) | 0x80);
+                encoded >>>= 7;
+            }
+            bytes[length++] = (byte) encoded;
+            return this;
+        }
+
+        Delta putInt(int value) { return putLong(value); }
+
+        Delta putPath(int[] path) {
+            putInt(path.length);
+            for (int position : path) {
+                putInt(position);
+            }
+            return this;
+        }
+
+        Delta putString(String value) {
+            byte[] text = value.getBytes(StandardCharsets.UTF_8);
+            putInt(text.length);
+            ensureCapacity(text.length);
+            System.arraycopy(text, 0, bytes, length, text.length);
+            length += text.length;
+            return this;
+        }
+
+        private void ensureCapacity(int more) {
+            if (length + more > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + more));
+        }
+
+        byte[] toBytes() { return Arrays.copyOf(bytes, length); }
+    }
+
+    //чтение шага: записи идут подряд, каждая начинается с кода операции
+    static final class Reader {
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        boolean hasNext() { return position < bytes.length; }
+        byte operation() { return bytes[position++]; }
+
+        long getLong() {
+            long encoded = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position++];
+                encoded |= (long) (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            return (encoded >>> 1) ^ -(encoded & 1);
+        }
+
+        int getInt() { return (int) getLong(); }
+
+        int[] getPath() {
+            int[] path = new int[getInt()];
+            for (int i = 0; i < path.length; i++) {
+                path[i] = getInt();
+            }
+            return path;
+        }
+
+        String getString() {
+            int size = getInt();
+            String value = new String(bytes, position, size, StandardCharsets.UTF_8);
+            position += size;
+            return value;
+        }
+    }
+
+    //шаг из записей, сделанных по ходу отмены: применять их нужно в обратном порядке
+    static byte[] reverse(List<byte[]> deltas) {
+        int size = 0;
+        for (byte[] delta : deltas) {
+            size += delta.length;
+        }
+        byte[] step = new byte[size];
+        int offset = 0;
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            System.arraycopy(deltas.get(i), 0, step, offset, deltas.get(i).length);
+            offset += deltas.get(i).length;
+        }
+        return step;
+    }
+
+    private final Steps undo;
+    private final Steps redo;
+
+    UndoHistory(int maxSteps, long maxHeapBytes) {
+        undo = new Steps(maxSteps, maxHeapBytes);
+        redo = new Steps(maxSteps, maxHeapBytes);
+    }
+
+    //файлы временные: история живет, пока открыт список
+    void spillTo(Path dir) throws IOException {
+        undo.spillTo(dir.resolve("undo.spill"));
+        redo.spillTo(dir.resolve("redo.spill"));
+    }
+
+    //новая правка: отмененные раньше шаги повторить уже нельзя
+    synchronized void done(byte[] step) {
+        undo.push(step);
+        redo.clear();
+    }
+
+    synchronized byte[] popUndo() { return undo.pop(); }
+    synchronized byte[] popRedo() { return redo.pop(); }
+    synchronized void pushUndo(byte[] step) { undo.push(step); }
+    synchronized void pushRedo(byte[] step) { redo.push(step); }
+    synchronized int undoCount() { return undo.size(); }
+    synchronized int redoCount() { return redo.size(); }
+
+    synchronized void clear() {
+        undo.clear();
+        redo.clear();
+    }
+
+    public synchronized void close() throws IOException {
+        undo.close();
+        redo.close();
+    }
+
+    //стек шагов: новые - в кольце в куче, самые старые - в файле (если он задан)
+    private static final class Steps implements AutoCloseable {
+        private static final int STEP_OVERHEAD = 32; //заголовок массива и ссылка в кольце
+        private static final long COMPACT_SPILL_BYTES = 1 << 20;
+
+        private final int maxSteps;
+        private final long maxHeapBytes;
+        private final ArrayDeque<byte[]> onHeap = new ArrayDeque<>();
+        private long heapBytes;
+
+        //в файле шаги лежат подряд от старых к новым; до spillStart - забытые
+        private final ArrayDeque<long[]> spilled = new ArrayDeque<>(); //{смещение, длина}
+        private Path spillFile;
+        private FileChannel spill;
+        private long spillStart;
+        private long spillEnd;
+
+        Steps(int maxSteps, long maxHeapBytes) {
+            this.maxSteps = maxSteps;
+            this.maxHeapBytes = maxHeapBytes;
+        }
+
+        //файл создается, только когда шаги перестанут помещаться в куче
+        void spillTo(Path file) throws IOException {
+            Files.deleteIfExists(file); //остался от прошлого запуска
+            spillFile = file;
+            spilled.clear();
+            spillStart = 0;
+            spillEnd = 0;
+        }
+
+        int size() { return onHeap.size() + spilled.size(); }
+
+        void push(byte[] step) {
+            onHeap.addLast(step);
+            heapBytes += step.length + STEP_OVERHEAD;
+            while (heapBytes > maxHeapBytes && onHeap.size() > 1) {
+                byte[] oldest = onHeap.pollFirst();
+                heapBytes -= oldest.length + STEP_OVERHEAD;
+                if (spillFile != null) writeSpilled(oldest);
+            }
+            while (size() > maxSteps) {
+                dropOldest();
+            }
+        }
+
+        byte[] pop() {
+            byte[] step = onHeap.pollLast();
+            if (step != null) {
+                heapBytes -= step.length + STEP_OVERHEAD;
+                return step;
+            }
+            long[] location = spilled.pollLast();
+            if (location == null) return null;
+            step = read(spill, location[0], (int) location[1]);
+            spillEnd = location[0]; //это был последний шаг в файле
+            if (spilled.isEmpty()) {
+                spillStart = 0;
+                spillEnd = 0;
+            }
+            return step;
+        }
+
+        void clear() {
+            onHeap.clear();
+            heapBytes = 0;
+            spilled.clear();
+            spillStart = 0;
+            spillEnd = 0;
+        }
+
+        private void dropOldest() {
+            if (!spilled.isEmpty()) {
+                long[] oldest = spilled.pollFirst();
+                spillStart = oldest[0] + oldest[1];
+                compactSpillIfNeeded();
+            } else {
+                heapBytes -= onHeap.pollFirst().length + STEP_OVERHEAD;
+            }
+        }
+
+        private void writeSpilled(byte[] step) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(step);
+                if (spill == null) {
+                    spill = FileChannel.open(spillFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                spilled.addLast(new long[] { spillEnd, step.length });
+                while (buffer.hasRemaining()) {
+                    spillEnd += spill.write(buffer, spillEnd);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static byte[] read(FileChannel channel, long offset, int length) {
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) < 0) throw new EOFException("undo file is truncated");
+                }
+                return buffer.array();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        //забытые старые шаги копятся в начале файла; когда их больше, чем живых, живые переписываются в новый файл
+        private void compactSpillIfNeeded() {
+            if (spillStart < COMPACT_SPILL_BYTES || spillStart < spillEnd - spillStart) return;
+
+            Path temp = spillFile.resolveSibling(spillFile.getFileName() + ".tmp");
+            try (FileChannel old = spill) {
+                spill = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                long shift = spillStart;
+                long position = 0;
+                while (position < spillEnd - shift) {
+                    position += old.transferTo(shift + position, spillEnd - shift - position, spill);
+                }
+                for (long[] location : spilled) {
+                    location[0] -= shift;
+                }
+                spillStart = 0;
+                spillEnd -= shift;
+                Files.move(temp, spillFile, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public void close() throws IOException {
+            if (spill != null) spill.close();
+            spill = null;
+            if (spillFile != null) Files.deleteIfExists(spillFile);
+            spillFile = null;
+        }
+    }
+}
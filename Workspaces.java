@@ -0,0 +1,332 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+//именованные списки (рабочие пространства) в одном процессе: у каждого свой каталог dir/<имя> со снимком,
+//журналом и корзиной. Список читается с диска при первом обращении и остается в памяти, пока им пользуются;
+//сверх бюджета (число списков в памяти и задач в них) или когда после сборки мусора куча почти полна,
+//списки сворачиваются в снимок и выгружаются - простаивающий список не занимает кучу. Выгружается самый
+//редко нужный из простаивающих (частоты, как в TinyLFU), из равных - дольше всех не тронутый, так что
+//разовое обращение к чужому списку не вытесняет те, с которыми работают постоянно
+//
+//обращение к списку - через Lease: пока аренда не закрыта, список не выгрузят
+class Workspaces implements AutoCloseable {
+    private static final int MAX_NAME_LENGTH = 64;
+    private static final int SKETCH_WIDTH = 1024; //степень двойки
+    private static final int SKETCH_SAMPLE = 10 * SKETCH_WIDTH;
+
+    private final Path dir;
+    private final boolean syncEachRecord;
+    private final int maxResident;
+    private final long maxResidentTasks;
+    //порядок доступа: первым идет список, к которому дольше всех не обращались (LRU)
+    private final LinkedHashMap<String, Workspace> resident = new LinkedHashMap<>(16, 0.75f, true);
+    //частоты обращений по имени, в том числе к выгруженным спискам: count-min sketch из 4 строк счетчиков,
+    //оценка - минимум по строкам; каждые SKETCH_SAMPLE обращений счетчики делятся пополам, и старая
+    //популярность забывается. Под замком Workspaces
+    private final int[][] sketch = new int[4][SKETCH_WIDTH];
+    private int sketchAdds;
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile boolean heapLow; //после сборки мусора занято больше порога - выгрузить половину простаивающих
+    private NotificationListener heapListener;
+    private volatile Consumer<String> warnings = message -> { }; //см. TaskList.onWarning, получают и все списки
+
+    private static class Workspace {
+        final String name;
+        int leases; //под замком Workspaces
+        volatile TaskList list; //меняется под замком самого Workspace; null пока список не прочитан или уже выгружен
+
+        Workspace(String name) {
+            this.name = name;
+        }
+    }
+
+    //список, взятый в пользование; close отдает его обратно
+    class Lease implements AutoCloseable {
+        private final Workspace workspace;
+        private final TaskList list;
+        private boolean closed;
+
+        private Lease(Workspace workspace, TaskList list) {
+            this.workspace = workspace;
+            this.list = list;
+        }
+
+        public TaskList list() { return list; }
+        public String name() { return workspace.name; }
+
+        public void close() {
+            if (closed) return;
+            closed = true;
+            release(workspace);
+        }
+    }
+
+    Workspaces(Path dir, boolean syncEachRecord, int maxResident, long maxResidentTasks) {
+        if (maxResident < 1) throw new IllegalArgumentException("at least one list must fit in memory");
+        this.dir = dir;
+        this.syncEachRecord = syncEachRecord;
+        this.maxResident = maxResident;
+        this.maxResidentTasks = maxResidentTasks;
+    }
+
+    public void onWarning(Consumer<String> warnings) { this.warnings = warnings; }
+
+    //IllegalArgumentException если имя не годится для каталога
+    static String checkName(String name) {
+        boolean valid = !name.isEmpty() && name.length() <= MAX_NAME_LENGTH;
+        for (int i = 0; i < name.length() && valid; i++) {
+            char c = name.charAt(i);
+            valid = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_';
+        }
+        if (!valid) {
+            throw new IllegalArgumentException("list name must be 1-" + MAX_NAME_LENGTH + " letters, digits, - or _, got: " + name);
+        }
+        return name;
+    }
+
+    //список с таким именем; если его нет в памяти - читается с диска (или создается пустым)
+    public Lease acquire(String name) throws IOException {
+        checkName(name);
+        Workspace workspace;
+        synchronized (this) {
+            workspace = resident.computeIfAbsent(name, Workspace::new);
+            workspace.leases++;
+            countAccess(name);
+        }
+        try {
+            TaskList list;
+            //пока один поток читает список с диска, остальные ждут его здесь, а не читают второй раз
+            synchronized (workspace) {
+                if (workspace.list == null) {
+                    TaskList loaded = new TaskList();
+                    loaded.onWarning(warnings);
+                    loaded.openStorage(dir.resolve(name), syncEachRecord);
+                    workspace.list = loaded;
+                    loads.increment();
+                }
+                list = workspace.list;
+            }
+            evictIfNeeded();
+            return new Lease(workspace, list);
+        } catch (IOException | RuntimeException e) {
+            release(workspace);
+            throw e;
+        }
+    }
+
+    private void release(Workspace workspace) {
+        synchronized (this) {
+            workspace.leases--;
+            if (workspace.leases == 0 && workspace.list == null) resident.remove(workspace.name, workspace);
+        }
+        evictIfNeeded();
+    }
+
+    //имена всех списков на диске и в памяти, по алфавиту
+    public List<String> names() throws IOException {
+        TreeMap<String, Boolean> names = new TreeMap<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(dir, Files::isDirectory)) {
+                for (Path child : children) {
+                    names.put(child.getFileName().toString(), Boolean.TRUE);
+                }
+            }
+        }
+        synchronized (this) {
+            for (String name : resident.keySet()) {
+                names.put(name, Boolean.TRUE);
+            }
+        }
+        return new ArrayList<>(names.keySet());
+    }
+
+    //в памяти или читается прямо сейчас; containsKey, а не get - get сдвинул бы список в порядке доступа,
+    //и простой просмотр имен менял бы, кого выгружать
+    public synchronized boolean isResident(String name) {
+        return resident.containsKey(name);
+    }
+
+    //есть ли такой список в памяти или на диске - без его создания
+    public boolean exists(String name) {
+        checkName(name);
+        synchronized (this) {
+            if (resident.containsKey(name)) return true;
+        }
+        return Files.isDirectory(dir.resolve(name));
+    }
+
+    public synchronized int residentCount() {
+        int count = 0;
+        for (Workspace workspace : resident.values()) {
+            if (workspace.list != null) count++;
+        }
+        return count;
+    }
+
+    public long loadCount() { return loads.sum(); }
+    public long evictionCount() { return evictions.sum(); }
+
+    //кроме бюджета - давление на кучу: когда после сборки мусора занято больше fraction самого большого
+    //пула старого поколения, при следующем обращении выгружается половина простаивающих списков
+    public void watchHeap(double fraction) {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0) {
+                pool.setCollectionUsageThreshold((long) (max * fraction));
+            }
+        }
+        heapListener = (notification, handback) -> {
+            if (notification.getType().equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED)) heapLow = true;
+        };
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(heapListener, null, null);
+    }
+
+    //выгружается самый редкий из простаивающих, из равных - первый в порядке доступа; списки в аренде пропускаются, поэтому бюджет
+    //может временно превышаться, пока их не отдадут
+    private void evictIfNeeded() {
+        int forHeap = 0;
+        if (heapLow) {
+            heapLow = false;
+            synchronized (this) {
+                forHeap = (idleCount() + 1) / 2;
+            }
+        }
+        while (true) {
+            Workspace victim = null;
+            synchronized (this) {
+                if (forHeap == 0 && withinBudget()) return;
+                int lowest = Integer.MAX_VALUE;
+                for (Workspace workspace : resident.values()) {
+                    if (workspace.leases > 0 || workspace.list == null) continue;
+                    int frequency = frequency(workspace.name);
+                    if (frequency < lowest) {
+                        victim = workspace;
+                        lowest = frequency;
+                    }
+                }
+            }
+            if (victim == null) return;
+            if (unload(victim) && forHeap > 0) forHeap--;
+        }
+    }
+
+    private void countAccess(String name) {
+        int hash = spread(name.hashCode());
+        for (int row = 0; row < sketch.length; row++) {
+            int[] counters = sketch[row];
+            int slot = (hash >>> (row * 8)) & (SKETCH_WIDTH - 1);
+            if (counters[slot] < Integer.MAX_VALUE) counters[slot]++;
+            hash = spread(hash + row);
+        }
+        if (++sketchAdds == SKETCH_SAMPLE) {
+            sketchAdds = 0;
+            for (int[] counters : sketch) {
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] >>>= 1;
+                }
+            }
+        }
+    }
+
+    private int frequency(String name) {
+        int hash = spread(name.hashCode());
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < sketch.length; row++) {
+            min = Math.min(min, sketch[row][(hash >>> (row * 8)) & (SKETCH_WIDTH - 1)]);
+            hash = spread(hash + row);
+        }
+        return min;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean withinBudget() {
+        int count = 0;
+        long tasks = 0;
+        for (Workspace workspace : resident.values()) {
+            TaskList list = workspace.list;
+            if (list == null) continue;
+            count++;
+            tasks += list.size() + list.getSubtaskCount();
+        }
+        return count <= maxResident && tasks <= maxResidentTasks;
+    }
+
+    private int idleCount() {
+        int idle = 0;
+        for (Workspace workspace : resident.values()) {
+            if (workspace.leases == 0 && workspace.list != null) idle++;
+        }
+        return idle;
+    }
+
+    //список сворачивается в снимок (при следующем чтении журнал не проигрывается) и закрывается;
+    //кто взял его в аренду за это время, ждет на замке Workspace и прочитает список заново
+    private boolean unload(Workspace workspace) {
+        synchronized (workspace) {
+            TaskList list = workspace.list;
+            synchronized (this) {
+                if (list == null || workspace.leases > 0) return false;
+            }
+            save(workspace.name, list);
+            workspace.list = null;
+            evictions.increment();
+            synchronized (this) {
+                if (workspace.leases == 0) resident.remove(workspace.name, workspace);
+            }
+            return true;
+        }
+    }
+
+    //список, который с чтения не меняли, уже целиком в снимке - переписывать его незачем
+    private void save(String name, TaskList list) {
+        try {
+            if (list.getJournalRecordCount() > 0) list.saveSnapshot();
+            list.close();
+        } catch (IOException e) {
+            //журнал уже на диске - при следующем чтении список восстановится из него
+            warnings.accept("cannot save list " + name + ": " + e.getMessage());
+        }
+    }
+
+    //все списки в памяти сворачиваются в снимки; вызывается при остановке процесса
+    public void close() {
+        if (heapListener != null) {
+            try {
+                ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(heapListener);
+            } catch (ListenerNotFoundException e) {
+                //уже снят
+            }
+        }
+        ArrayList<Workspace> all;
+        synchronized (this) {
+            all = new ArrayList<>(resident.values());
+        }
+        for (Workspace workspace : all) {
+            synchronized (workspace) {
+                if (workspace.list == null) continue;
+                save(workspace.name, workspace.list);
+                workspace.list = null;
+            }
+        }
+    }
+}
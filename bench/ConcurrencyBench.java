@@ -0,0 +1,344 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+//TaskList под нагрузкой из нескольких потоков: каждый поток вперемешку читает (оптимистичное чтение
+//без блокировки и чтение под блокировкой) и правит (вставка и перенос под блокировкой записи, правка
+//текста и подзадачи под замком полосы, отмена - повторный вход в блокировку записи)
+//запуск: java -cp target/classes:target/test-classes ConcurrencyBench ...
+//  -threads 8                 проверить и замерить на 1, 2, ..., 8 потоках
+//  -size 100000 -subtasks 2   задач в списке и подзадач у каждой
+//  -writes 20                 процент правок среди операций
+//  -ops 20000                 операций на поток в проверке (всего не больше size/4, см. check)
+//  -warmup 500 -time 1000     прогрев и замер пропускной способности в мс
+//
+//проверка: тот же набор операций идет по списку с журналом, после чего список сверяется сам с собой
+//(позиции, id, индексы и счетчики) и с эталоном - новым списком, который проиграл журнал в одном потоке.
+//Журнал пишется в том порядке, в каком правки на самом деле применялись, так что потерянная или
+//примененная не к той задаче правка дает расхождение. Пропускная способность меряется отдельно,
+//на списке без журнала. При любом расхождении процесс завершается с кодом 1
+public class ConcurrencyBench {
+    private static final long START = 1_700_000_000_000L;
+    private static final int PAGE = 20;
+    //доли операций: среди чтений и среди правок, в сумме по 100
+    private static final int READ_GET = 30, READ_BY_ID = 25, READ_PAGE = 25, READ_SEARCH = 10; //остальное - query
+    private static final int WRITE_INSERT = 20, WRITE_MOVE = 20, WRITE_EDIT = 30, WRITE_SUBTASK = 25; //остальное - undo
+
+    //что насчитал один прогон; нарушения - ошибки, которые видны уже читателям во время прогона
+    static class Counters {
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final AtomicLong misses = new AtomicLong(); //позиция ушла за конец списка (отмена вставки) - так бывает
+        final AtomicLong violations = new AtomicLong();
+        final AtomicReference<String> firstViolation = new AtomicReference<>();
+
+        void violation(String message) {
+            violations.incrementAndGet();
+            firstViolation.compareAndSet(null, message);
+        }
+    }
+
+    //поток нагрузки: ops операций или до остановки, если ops <= 0
+    static class Worker implements Runnable {
+        private final TaskList list;
+        private final int thread;
+        private final int writePercent;
+        private final long ops;
+        private final CyclicBarrier start;
+        private final Counters counters;
+        private final SplittableRandom random;
+        private volatile boolean stopped;
+
+        Worker(TaskList list, int thread, int writePercent, long ops, CyclicBarrier start, Counters counters) {
+            this.list = list;
+            this.thread = thread;
+            this.writePercent = writePercent;
+            this.ops = ops;
+            this.start = start;
+            this.counters = counters;
+            this.random = new SplittableRandom(42 + thread);
+        }
+
+        void stop() { stopped = true; }
+
+        public void run() {
+            try {
+                start.await();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            long reads = 0;
+            long writes = 0;
+            for (long i = 0; ops <= 0 ? !stopped : i < ops; i++) {
+                try {
+                    if (random.nextInt(100) < writePercent) {
+                        write(i);
+                        writes++;
+                    } else {
+                        read();
+                        reads++;
+                    }
+                } catch (IndexOutOfBoundsException e) {
+                    counters.misses.incrementAndGet();
+                } catch (RuntimeException e) {
+                    counters.violation("thread " + thread + ": " + e);
+                }
+            }
+            counters.reads.addAndGet(reads);
+            counters.writes.addAndGet(writes);
+        }
+
+        private void read() {
+            int size = list.size();
+            int kind = random.nextInt(100);
+            if ((kind -= READ_GET) < 0) {
+                if (list.get(random.nextInt(size)) == null) counters.violation("get returned null");
+            } else if ((kind -= READ_BY_ID) < 0) {
+                long id = 1 + random.nextInt(size);
+                BaseTask task = list.getById(id);
+                if (task != null && task.getId() != id) counters.violation("getById(" + id + ") returned task " + task.getId());
+            } else if ((kind -= READ_PAGE) < 0) {
+                TaskSorter.Order order = random.nextInt(4) == 0 ? TaskSorter.Order.DATE : TaskSorter.Order.PRIORITY;
+                checkDistinct("page", list.page(order, random.nextInt(size), PAGE), PAGE);
+            } else if ((kind -= READ_SEARCH) < 0) {
+                for (SearchHit hit : list.search("task " + random.nextInt(size) + " of")) {
+                    if (hit.task == null) counters.violation("search hit without a task");
+                }
+            } else {
+                int from = random.nextInt(size);
+                checkDistinct("query", list.query(from, from + 1000, TaskFilter.text("edited")), 1000);
+            }
+        }
+
+        private void checkDistinct(String what, List<BaseTask> tasks, int limit) {
+            if (tasks.size() > limit) counters.violation(what + " returned " + tasks.size() + " tasks, asked for " + limit);
+            HashSet<Long> seen = new HashSet<>();
+            for (BaseTask task : tasks) {
+                if (!seen.add(task.getId())) counters.violation(what + " returned task " + task.getId() + " twice");
+            }
+        }
+
+        private void write(long i) {
+            int size = list.size();
+            int kind = random.nextInt(100);
+            if ((kind -= WRITE_INSERT) < 0) {
+                list.insertTask("task " + i + " of thread " + thread, START + random.nextInt(1_000_000_000));
+            } else if ((kind -= WRITE_MOVE) < 0) {
+                list.moveTask(random.nextInt(size), random.nextInt(size));
+            } else if ((kind -= WRITE_EDIT) < 0) {
+                list.editDescription(random.nextInt(size), "task " + i + " edited by thread " + thread);
+            } else if ((kind -= WRITE_SUBTASK) < 0) {
+                list.appendSubtask(random.nextInt(size), "step " + i + " of thread " + thread);
+            } else {
+                list.undo();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int maxThreads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        int size = Integer.parseInt(options.getOrDefault("size", "100000"));
+        int fanOut = Integer.parseInt(options.getOrDefault("subtasks", "2"));
+        int writePercent = Integer.parseInt(options.getOrDefault("writes", "20"));
+        long ops = Long.parseLong(options.getOrDefault("ops", "20000"));
+        long warmupMillis = Long.parseLong(options.getOrDefault("warmup", "500"));
+        long timeMillis = Long.parseLong(options.getOrDefault("time", "1000"));
+
+        boolean failed = false;
+        System.out.printf("%7s %12s %12s %12s %8s  %s%n", "threads", "ops/s", "reads/s", "writes/s", "misses", "check");
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            String check = check(size, fanOut, threads, writePercent, ops);
+            failed |= !check.startsWith("ok");
+
+            TaskList list = fill(new TaskList(), size, fanOut);
+            run(list, threads, writePercent, warmupMillis);
+            Counters counters = run(list, threads, writePercent, timeMillis);
+            double seconds = timeMillis / 1000.0;
+            System.out.printf(Locale.ROOT, "%7d %12.0f %12.0f %12.0f %8d  %s%n", threads,
+                    (counters.reads.get() + counters.writes.get()) / seconds, counters.reads.get() / seconds,
+                    counters.writes.get() / seconds, counters.misses.get(), check);
+            if (counters.violations.get() > 0) {
+                System.out.println("        under load: " + counters.violations.get() + " violations, first: " + counters.firstViolation.get());
+                failed = true;
+            }
+        }
+        if (failed) System.exit(1);
+    }
+
+    //замер: threads потоков без ограничения числа операций в течение millis мс
+    private static Counters run(TaskList list, int threads, int writePercent, long millis) throws Exception {
+        Counters counters = new Counters();
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        ArrayList<Worker> workers = new ArrayList<>();
+        ArrayList<Thread> running = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Worker worker = new Worker(list, t, writePercent, 0, start, counters);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "bench-" + t);
+            thread.start();
+            running.add(thread);
+        }
+        start.await();
+        Thread.sleep(millis);
+        for (Worker worker : workers) worker.stop();
+        for (Thread thread : running) thread.join();
+        return counters;
+    }
+
+    //список с журналом: нагрузка, затем сверка с самим собой и с эталоном, проигравшим журнал в одном потоке.
+    //Правок должно быть меньше четверти списка: иначе close свернет журнал в снимок и эталону нечего проигрывать
+    private static String check(int size, int fanOut, int threads, int writePercent, long ops) throws Exception {
+        long opsPerThread = Math.min(ops, Math.max(1, size / 4 / threads));
+        Path dir = Files.createTempDirectory("todo-concurrency");
+        try {
+            TaskList list = new TaskList();
+            list.openStorage(dir, false);
+            fill(list, size, fanOut);
+            list.saveSnapshot(); //дальше в журнале только правки под нагрузкой
+
+            Counters counters = new Counters();
+            CyclicBarrier start = new CyclicBarrier(threads);
+            ArrayList<Thread> running = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread thread = new Thread(new Worker(list, t, writePercent, opsPerThread, start, counters), "check-" + t);
+                thread.start();
+                running.add(thread);
+            }
+            for (Thread thread : running) thread.join();
+            if (counters.violations.get() > 0) {
+                return "FAILED under load: " + counters.violations.get() + " violations, first: " + counters.firstViolation.get();
+            }
+
+            String broken = checkInvariants(list);
+            if (broken != null) return "FAILED: " + broken;
+            long records = list.getJournalRecordCount();
+            List<String> actual = describe(list);
+            list.close();
+
+            TaskList reference = new TaskList();
+            reference.openStorage(dir, false);
+            try {
+                List<String> expected = describe(reference);
+                for (int i = 0; i < Math.max(actual.size(), expected.size()); i++) {
+                    String left = i < actual.size() ? actual.get(i) : "(none)";
+                    String right = i < expected.size() ? expected.get(i) : "(none)";
+                    if (!left.equals(right)) {
+                        return "FAILED: task " + (i + 1) + " is " + left + ", after replaying the journal " + right;
+                    }
+                }
+                broken = checkInvariants(reference);
+                if (broken != null) return "FAILED after replay: " + broken;
+            } finally {
+                reference.close();
+            }
+            return "ok (" + opsPerThread * threads + " ops, " + records + " journal records replayed)";
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static TaskList fill(TaskList list, int size, int fanOut) {
+        for (int i = 0; i < size; i++) {
+            list.insertTask("task " + i + " of the benchmark list", START + i * 1000L);
+            for (int j = 0; j < fanOut; j++) {
+                list.appendSubtask(i, "step " + j + " of task " + i);
+            }
+        }
+        return list;
+    }
+
+    //то, что должно сходиться в любом состоянии списка, когда его никто не правит; null если все сошлось
+    private static String checkInvariants(TaskList list) {
+        int size = list.size();
+        HashSet<Long> ids = new HashSet<>();
+        long subtasks = 0;
+        for (int i = 0; i < size; i++) {
+            BaseTask task = list.get(i);
+            long id = task.getId();
+            if (!ids.add(id)) return "task " + id + " is in the list twice";
+            if (task.getPriority() != i + TaskList.FIRST_PRIORITY) return "task " + id + " at " + (i + 1) + " has priority " + task.getPriority();
+            if (list.indexOf(id) != i) return "indexOf(" + id + ") is " + list.indexOf(id) + ", expected " + i;
+            if (list.getById(id) != task) return "getById(" + id + ") is another task";
+            if (task instanceof Task) subtasks += countSubtasks((Task) task);
+        }
+        if (subtasks != list.getSubtaskCount()) return subtasks + " subtasks in the tree, counter says " + list.getSubtaskCount();
+        //вид по дедлайну держит только задачи с дедлайном, а их в этой нагрузке нет
+        for (TaskSorter.Order order : List.of(TaskSorter.Order.PRIORITY, TaskSorter.Order.DATE, TaskSorter.Order.DESCRIPTION)) {
+            if (list.size(order) != size) return order + " view has " + list.size(order) + " tasks, list has " + size;
+            HashSet<Long> seen = new HashSet<>();
+            for (BaseTask task : list.page(order, 0, size)) {
+                if (!ids.contains(task.getId()) || !seen.add(task.getId())) return order + " view does not match the list";
+            }
+        }
+        for (int i = 0; i < size; i += Math.max(1, size / 100)) {
+            BaseTask task = list.get(i);
+            boolean found = false;
+            for (SearchHit hit : list.search(task.toString())) {
+                found |= hit.task == task;
+            }
+            if (!found) return "search does not find task " + task.getId() + " \"" + task + "\"";
+        }
+        return null;
+    }
+
+    private static long countSubtasks(Task task) {
+        long count = 0;
+        for (Task subtask : task.getSubtasks()) {
+            count += 1 + countSubtasks(subtask);
+        }
+        if (count != task.getSubtreeSize()) throw new IllegalStateException("task " + task.getId() + " has " + count
+                + " subtasks, subtree size says " + task.getSubtreeSize());
+        return count;
+    }
+
+    //задачи по порядку со всем, что журнал должен восстановить
+    private static List<String> describe(TaskList list) {
+        ArrayList<String> tasks = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) {
+            StringBuilder out = new StringBuilder();
+            describe(list.get(i), out);
+            tasks.add(out.toString());
+        }
+        return tasks;
+    }
+
+    private static void describe(BaseTask task, StringBuilder out) {
+        out.append('#').append(task.getId()).append(" \"").append(task).append("\" ").append(task.getCreatedMillis());
+        if (task instanceof Task) {
+            Task node = (Task) task;
+            if (node.isDone()) out.append(" done");
+            out.append(" [");
+            for (Task subtask : node.getSubtasks()) {
+                describe(subtask, out);
+                out.append(';');
+            }
+            out.append(']');
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("-")) throw new IllegalArgumentException("expected an option, got: " + args[i]);
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,93 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+//порядок замков журнала: поток сброса держит flushLock и ждет монитор журнала, а в это время правка
+//под монитором закрывает запись, с которой буфер переваливает за порог сброса. Если запись в файл
+//(или fsync в режиме syncEachRecord) начнется под монитором - это взаимная блокировка
+//запуск: java -cp target/classes:target/test-classes JournalCheck; при ошибке - код 1 и стеки потоков
+public class JournalCheck {
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final int RECORD_CHARS = 100 * 1024; //одна запись больше порога сброса
+
+    public static void main(String[] args) throws Exception {
+        boolean failed = false;
+        for (boolean syncEachRecord : new boolean[] { false, true }) {
+            String result = check(syncEachRecord);
+            System.out.println((syncEachRecord ? "sync each record: " : "group commit:     ") + result);
+            failed |= !result.startsWith("ok");
+        }
+        if (failed) System.exit(1);
+    }
+
+    private static String check(boolean syncEachRecord) throws Exception {
+        Path dir = Files.createTempDirectory("todo-journal");
+        Path file = dir.resolve("todo.journal");
+        try {
+            TaskJournal journal = TaskJournal.open(file, 1, syncEachRecord, record -> { });
+            String text = "x".repeat(RECORD_CHARS);
+
+            //как поток сброса: flushLock, затем монитор журнала - но только когда правка уже под монитором
+            CountDownLatch flushLockHeld = new CountDownLatch(1);
+            CountDownLatch writerInside = new CountDownLatch(1);
+            Thread flusher = new Thread(() -> {
+                synchronized (journal.flushLock) {
+                    flushLockHeld.countDown();
+                    awaitQuietly(writerInside);
+                    synchronized (journal) {
+                        //только дождаться монитора
+                    }
+                }
+            }, "check-flusher");
+
+            //как TaskList.log: запись целиком через append; закрывается она, когда поток сброса уже ждет монитор
+            Thread writer = new Thread(() -> {
+                awaitQuietly(flushLockHeld);
+                journal.append(out -> {
+                    writerInside.countDown();
+                    while (flusher.getState() != Thread.State.BLOCKED && flusher.isAlive()) {
+                        Thread.onSpinWait();
+                    }
+                    out.begin(TaskJournal.CREATE).putString(text).putLong(0).commit();
+                });
+            }, "check-writer");
+
+            flusher.setDaemon(true);
+            writer.setDaemon(true);
+            flusher.start();
+            writer.start();
+            writer.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            flusher.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            if (writer.isAlive() || flusher.isAlive()) {
+                StringBuilder stacks = new StringBuilder("FAILED: deadlock");
+                long[] deadlocked = ManagementFactory.getThreadMXBean().findDeadlockedThreads();
+                if (deadlocked != null) {
+                    for (ThreadInfo info : ManagementFactory.getThreadMXBean().getThreadInfo(deadlocked, true, true)) {
+                        stacks.append(System.lineSeparator()).append(info);
+                    }
+                }
+                return stacks.toString();
+            }
+            journal.close();
+
+            int[] replayed = { 0 };
+            TaskJournal reopened = TaskJournal.open(file, 1, syncEachRecord, record -> replayed[0]++);
+            reopened.close();
+            return replayed[0] == 1 ? "ok" : "FAILED: " + replayed[0] + " records replayed, expected 1";
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+//время запуска: приложение запускается отдельным процессом много раз подряд, замеряется время до первого
+//байта вывода и до выхода процесса; с архивом классов (mvn -P cds package) и без него
+//запуск: mvn -P cds package, затем java -cp target/test-classes StartupBench ...
+//  -tasks 0,10000,100000     размеры списка (список создается один раз во временном каталоге через --import)
+//  -command "--show"         что запускать; например "--query task 42" или "--batch script.txt"
+//  -runs 20 -warmup 3        замеров и прогревочных запусков (прогреваются кэш файлов и сама ОС, не JVM)
+//  -jar target/to-do-list-1.0-SNAPSHOT.jar -cds target/todo.jsa   что запускать; без архива - только обычный запуск
+public class StartupBench {
+    private static final long START = 1_700_000_000_000L;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        Path jar = Paths.get(options.getOrDefault("jar", "target/to-do-list-1.0-SNAPSHOT.jar")).toAbsolutePath();
+        Path archive = Paths.get(options.getOrDefault("cds", "target/todo.jsa")).toAbsolutePath();
+        List<String> command = Arrays.asList(options.getOrDefault("command", "--show").split(" "));
+        int runs = Integer.parseInt(options.getOrDefault("runs", "20"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        if (!Files.exists(jar)) throw new IllegalArgumentException("no " + jar + ", run mvn package first");
+
+        System.out.printf("%-8s %9s %14s %14s %14s %14s%n", "mode", "tasks",
+                "first out p50", "first out p90", "exit p50", "exit p90");
+        for (String size : options.getOrDefault("tasks", "0,10000,100000").split(",")) {
+            int tasks = Integer.parseInt(size.trim());
+            Path dir = prepare(jar, tasks);
+            report("plain", tasks, measure(dir, java(jar, null, command), runs, warmup));
+            if (Files.exists(archive)) {
+                report("cds", tasks, measure(dir, java(jar, archive, command), runs, warmup));
+            }
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+        if (!Files.exists(archive)) System.out.println("no " + archive + ": run mvn -P cds package to compare with AppCDS");
+    }
+
+    //каталог со списком из tasks задач; первый запуск после импорта сворачивает журнал в снимок, дальше запуски одинаковые
+    private static Path prepare(Path jar, int tasks) throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("todo-startup");
+        if (tasks == 0) return dir;
+
+        Path csv = dir.resolve("tasks.csv");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(csv, StandardCharsets.UTF_8))) {
+            out.println("path,description,created,deadline,done,deleted");
+            for (int i = 0; i < tasks; i++) {
+                out.println((i + 1) + ",task " + i + " of the startup list," + (START + i) + ",,false,");
+            }
+        }
+        run(dir, java(jar, null, List.of("--import", csv.toString())));
+        Files.delete(csv);
+        return dir;
+    }
+
+    private static List<String> java(Path jar, Path archive, List<String> command) {
+        ArrayList<String> line = new ArrayList<>();
+        line.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (archive != null) line.add("-XX:SharedArchiveFile=" + archive);
+        line.add("-jar");
+        line.add(jar.toString());
+        line.addAll(command);
+        return line;
+    }
+
+    //{время до первого байта вывода, время до выхода} в мс по каждому замеру
+    private static double[][] measure(Path dir, List<String> command, int runs, int warmup) throws IOException, InterruptedException {
+        double[][] samples = new double[2][runs];
+        for (int run = -warmup; run < runs; run++) {
+            long[] times = run(dir, command);
+            if (run >= 0) {
+                samples[0][run] = times[0] / 1e6;
+                samples[1][run] = times[1] / 1e6;
+            }
+        }
+        return samples;
+    }
+
+    private static long[] run(Path dir, List<String> command) throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        Process process = new ProcessBuilder(command).directory(dir.toFile()).redirectErrorStream(true).start();
+        long firstOutput = -1;
+        byte[] buffer = new byte[8192];
+        try (InputStream out = process.getInputStream()) {
+            int read;
+            while ((read = out.read(buffer)) != -1) {
+                if (firstOutput < 0 && read > 0) firstOutput = System.nanoTime() - started;
+            }
+        }
+        int code = process.waitFor();
+        long exited = System.nanoTime() - started;
+        if (code != 0) throw new IllegalStateException(String.join(" ", command) + " exited with " + code);
+        return new long[] { firstOutput < 0 ? exited : firstOutput, exited };
+    }
+
+    private static void report(String mode, int tasks, double[][] samples) {
+        System.out.printf(Locale.ROOT, "%-8s %9d %14.1f %14.1f %14.1f %14.1f%n", mode, tasks,
+                percentile(samples[0], 50), percentile(samples[0], 90), percentile(samples[1], 50), percentile(samples[1], 90));
+    }
+
+    private static double percentile(double[] values, int percent) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percent / 100.0) - 1)];
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("-")) throw new IllegalArgumentException("expected an option, got: " + args[i]);
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,264 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+//микробенчмарки горячих путей списка - без меню и Scanner, прямо по TaskList
+//запуск: mvn -P bench verify -Dbench.args="..." или java -cp target/classes:target/test-classes ToDoBench ...
+//  -size 100,10000,1000000   размеры списка
+//  -subtasks 0,4             подзадач у каждой задачи
+//  -only insert,search       только эти бенчмарки
+//  -warmup 3 -iterations 5 -time 500   итерации прогрева, замеров и их длина в мс
+//  -csv results.csv          сохранить результаты
+//  -baseline results.csv     сравнить с прошлыми результатами (медленнее на 10%+ помечается)
+//
+//как в JMH: у каждого набора параметров свое состояние, сначала прогрев, затем замеры по времени,
+//результат каждой операции уходит в sink, чтобы JIT не выбросил работу; уборка после каждой пачки
+//операций (вставленные задачи удаляются, удаленные восстанавливаются) не замеряется, так что список
+//все время остается своего размера. Сам JMH сюда не подходит: он отказывается работать с классами
+//в пакете по умолчанию, а весь код списка - пакетные классы из корня проекта
+public class ToDoBench {
+    private static final int PAGE = 20; //страница меню
+    private static final int RANDOMS = 1 << 16; //степень двойки
+    private static final int BATCH = 16; //операций между замерами времени
+    private static final double REGRESSION = 1.10;
+
+    static volatile long sink;
+
+    //одна операция бенчмарка; i - номер операции в итерации, по нему выбираются случайные аргументы
+    interface Operation {
+        long run(int i);
+    }
+
+    //состояние одного набора параметров: список из size задач по fanOut подзадач, виды и индекс поиска уже построены
+    static class State {
+        final int size;
+        final int fanOut;
+        final TaskList list = new TaskList();
+        final int[] randoms = new int[RANDOMS];
+        final ArrayList<BaseTask> inserted = new ArrayList<>();
+        final ArrayList<Long> deleted = new ArrayList<>();
+        final ArrayList<BaseTask> scanned; //задачи подряд, как их держал старый ToDo - для search-scan
+        final TaskRenderer renderer = new TaskRenderer(new PrintStream(OutputStream.nullOutputStream()));
+
+        State(int size, int fanOut) {
+            this.size = size;
+            this.fanOut = fanOut;
+            long seed = 42;
+            for (int i = 0; i < RANDOMS; i++) {
+                seed ^= seed << 13;
+                seed ^= seed >>> 7;
+                seed ^= seed << 17;
+                randoms[i] = (int) (seed >>> 33);
+            }
+            for (int i = 0; i < size; i++) {
+                list.insertTask("task " + i + " of the benchmark list", 1_700_000_000_000L + randoms[i & (RANDOMS - 1)]);
+                for (int j = 0; j < fanOut; j++) {
+                    list.appendSubtask(i, "step " + j + " of task " + i);
+                }
+            }
+            list.size(TaskSorter.Order.DATE);
+            list.size(TaskSorter.Order.DESCRIPTION);
+            list.search("warm");
+            scanned = list.page(TaskSorter.Order.PRIORITY, 0, size);
+        }
+
+        int random(int i, int bound) { return (int) ((randoms[i & (RANDOMS - 1)] & 0x7FFFFFFFL) % bound); }
+    }
+
+    static class Benchmark {
+        final String name;
+        final Function<State, Operation> operation; //null вместо операции - бенчмарк для этого состояния не запускается
+        final Consumer<State> afterBatch; //уборка после пачки операций, не замеряется
+
+        Benchmark(String name, Function<State, Operation> operation, Consumer<State> afterBatch) {
+            this.name = name;
+            this.operation = operation;
+            this.afterBatch = afterBatch;
+        }
+    }
+
+    static final List<Benchmark> BENCHMARKS = List.of(
+            //createTask: новая задача в конец списка (и в индексы)
+            new Benchmark("insert", state -> i -> {
+                Task task = state.list.insertTask("new task " + i, 1_800_000_000_000L + i);
+                state.inserted.add(task);
+                return task.getId();
+            }, state -> {
+                for (int i = state.inserted.size() - 1; i >= 0; i--) {
+                    state.list.removeTask(state.inserted.get(i).getPriority() - TaskList.FIRST_PRIORITY);
+                }
+                state.inserted.clear();
+            }),
+            //deleteTask: удаление из середины, приоритеты остальных пересчитываются из позиций
+            new Benchmark("delete", state -> i -> {
+                BaseTask removed = state.list.removeTask(state.random(i, state.list.size()));
+                state.deleted.add(removed.getId());
+                return removed.getId();
+            }, state -> {
+                for (long id : state.deleted) {
+                    state.list.restoreArchivedTask(id);
+                }
+                state.deleted.clear();
+            }),
+            //changePriority: перенос задачи на случайную позицию
+            new Benchmark("move", state -> i -> {
+                state.list.moveTask(state.random(i, state.size), state.random(i + 1, state.size));
+                return i;
+            }, null),
+            new Benchmark("get-by-id", state -> i -> state.list.getById(1 + state.random(i, state.size)).getCreatedMillis(), null),
+            //sortByPriority / sortByDate / sortByDescription: страница меню из поддерживаемого вида
+            new Benchmark("page-priority", state -> i -> pageOf(state, TaskSorter.Order.PRIORITY, i), null),
+            new Benchmark("page-date", state -> i -> pageOf(state, TaskSorter.Order.DATE, i), null),
+            new Benchmark("page-description", state -> i -> pageOf(state, TaskSorter.Order.DESCRIPTION, i), null),
+            //searchTasks: точная фраза, совпадает с одной-двумя задачами
+            new Benchmark("search", state -> i -> state.list.search("task " + state.random(i, state.size) + " of").size(), null),
+            //то же без индекса: старый searchTasks, toLowerCase().contains() по каждой задаче и подзадаче.
+            //На миллионе задач с подзадачами список сам занимает почти всю кучу профиля bench (-Xmx4g), и копии
+            //5 млн строк на каждый проход уходят в полные сборки - замерялся бы сборщик, а не цикл
+            new Benchmark("search-scan", state -> state.fanOut > 0 && state.size >= 1_000_000 ? null
+                    : i -> scan(state.scanned, "task " + state.random(i, state.size) + " of"), null),
+            //запрос без индекса: проход по всему списку (параллельный на больших списках)
+            new Benchmark("filter", state -> i -> state.list.query(TaskFilter.text("Task " + state.random(i, state.size) + " OF")
+                    .and(TaskFilter.createdBetween(1_700_000_000_000L, 1_701_000_000_000L))).size(), null),
+            //displayTasks: страница списка с подзадачами через буферизованный вывод
+            new Benchmark("render", state -> i -> {
+                int from = state.random(i, Math.max(1, state.size - PAGE));
+                return state.renderer.renderList(state.list.page(TaskSorter.Order.PRIORITY, from, PAGE).iterator(),
+                        from + 1, PAGE, false);
+            }, null)
+    );
+
+    private static long scan(List<? extends BaseTask> tasks, String query) {
+        long found = 0;
+        for (BaseTask task : tasks) {
+            if (task.toString().toLowerCase().contains(query)) found++;
+            if (task instanceof Task) found += scan(((Task) task).getSubtasks(), query);
+        }
+        return found;
+    }
+
+    private static long pageOf(State state, TaskSorter.Order order, int i) {
+        ArrayList<BaseTask> page = state.list.page(order, state.random(i, Math.max(1, state.size - PAGE)), PAGE);
+        return page.isEmpty() ? 0 : page.get(0).getCreatedMillis();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        int[] sizes = parseInts(options.getOrDefault("size", "100,10000,100000,1000000"));
+        int[] fanOuts = parseInts(options.getOrDefault("subtasks", "0,4"));
+        List<String> only = options.containsKey("only") ? List.of(options.get("only").split(",")) : null;
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "3"));
+        int iterations = Integer.parseInt(options.getOrDefault("iterations", "5"));
+        long iterationNanos = Long.parseLong(options.getOrDefault("time", "500")) * 1_000_000L;
+        Map<String, Double> baseline = options.containsKey("baseline")
+                ? readCsv(Paths.get(options.get("baseline"))) : new HashMap<>();
+
+        ArrayList<String> csv = new ArrayList<>();
+        csv.add("benchmark,size,subtasks,ns_per_op,error");
+        System.out.printf("%-17s %9s %8s %14s %12s%n", "benchmark", "size", "subtasks", "ns/op", "error(99%)");
+        for (int size : sizes) {
+            for (int fanOut : fanOuts) {
+                State state = new State(size, fanOut);
+                for (Benchmark benchmark : BENCHMARKS) {
+                    if (only != null && !only.contains(benchmark.name)) continue;
+                    Operation operation = benchmark.operation.apply(state);
+                    if (operation == null) continue;
+
+                    double[] result = measure(state, benchmark, operation, warmup, iterations, iterationNanos);
+                    String key = benchmark.name + "," + size + "," + fanOut;
+                    String note = "";
+                    Double before = baseline.get(key);
+                    if (before != null) {
+                        note = String.format(Locale.ROOT, "  %+.1f%% vs baseline%s", (result[0] / before - 1) * 100,
+                                result[0] > before * REGRESSION ? "  <-- REGRESSION" : "");
+                    }
+                    System.out.printf(Locale.ROOT, "%-17s %9d %8d %14.1f %12.1f%s%n",
+                            benchmark.name, size, fanOut, result[0], result[1], note);
+                    csv.add(String.format(Locale.ROOT, "%s,%.1f,%.1f", key, result[0], result[1]));
+                }
+            }
+        }
+
+        if (options.containsKey("csv")) {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(options.get("csv")), StandardCharsets.UTF_8))) {
+                csv.forEach(out::println);
+            }
+        }
+    }
+
+    //среднее ns/op по итерациям замера и полуширина 99% интервала (как Error в JMH)
+    private static double[] measure(State state, Benchmark benchmark, Operation operation, int warmup, int iterations,
+                                    long iterationNanos) {
+        double[] samples = new double[iterations];
+        int counter = 0;
+        for (int iteration = -warmup; iteration < iterations; iteration++) {
+            long ops = 0;
+            long result = 0;
+            long measured = 0;
+            do {
+                long started = System.nanoTime();
+                for (int i = 0; i < BATCH; i++) {
+                    result += operation.run(counter++);
+                }
+                measured += System.nanoTime() - started;
+                ops += BATCH;
+                if (benchmark.afterBatch != null) benchmark.afterBatch.accept(state);
+            } while (measured < iterationNanos);
+            sink += result;
+
+            if (iteration >= 0) samples[iteration] = (double) measured / ops;
+        }
+
+        double mean = 0;
+        for (double sample : samples) mean += sample;
+        mean /= samples.length;
+        double variance = 0;
+        for (double sample : samples) variance += (sample - mean) * (sample - mean);
+        double error = samples.length > 1 ? 2.576 * Math.sqrt(variance / (samples.length - 1)) / Math.sqrt(samples.length) : 0;
+        return new double[] { mean, error };
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("-")) throw new IllegalArgumentException("expected an option, got: " + args[i]);
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static int[] parseInts(String text) {
+        String[] parts = text.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static Map<String, Double> readCsv(Path file) throws IOException {
+        HashMap<String, Double> results = new HashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            in.readLine(); //заголовок
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(",");
+                results.put(fields[0] + "," + fields[1] + "," + fields[2], Double.parseDouble(fields[3]));
+            }
+        }
+        return results;
+    }
+}